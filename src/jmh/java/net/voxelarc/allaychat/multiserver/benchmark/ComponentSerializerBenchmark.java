@@ -0,0 +1,71 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson round-trips of the components the module puts on the wire whenever a message can't be sent as a template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ComponentSerializerBenchmark {
+
+    @Param({"PLAIN", "CHAT_LINE", "RICH"})
+    private String shape;
+
+    private final GsonComponentSerializer serializer = GsonComponentSerializer.gson();
+
+    private Component component;
+    private String serialized;
+
+    @Setup
+    public void setup() {
+        component = switch (shape) {
+            case "PLAIN" -> Component.text("anyone selling diamonds? paying well");
+            case "CHAT_LINE" -> chatLine("Notch", "anyone selling diamonds? paying well");
+            case "RICH" -> {
+                Component line = chatLine("Notch", "");
+                for (int i = 0; i < 8; i++) {
+                    line = line.append(Component.text("item " + i + " ", NamedTextColor.AQUA)
+                            .hoverEvent(HoverEvent.showText(Component.text("Diamond Sword\nSharpness V\nUnbreaking III", NamedTextColor.LIGHT_PURPLE)))
+                            .decorate(TextDecoration.UNDERLINED));
+                }
+                yield line;
+            }
+            default -> throw new IllegalArgumentException(shape);
+        };
+
+        serialized = serializer.serialize(component);
+    }
+
+    // Roughly what a rank prefix, name and message look like after the chat format is applied
+    private static Component chatLine(String player, String message) {
+        Component name = Component.text("[VIP] " + player, NamedTextColor.GOLD)
+                .hoverEvent(HoverEvent.showText(Component.text("Rank: ", NamedTextColor.GRAY).append(Component.text("VIP", NamedTextColor.GOLD))))
+                .clickEvent(ClickEvent.suggestCommand("/msg " + player + " "));
+
+        return Component.empty()
+                .append(name)
+                .append(Component.text(" » ", NamedTextColor.DARK_GRAY))
+                .append(Component.text(message, NamedTextColor.WHITE));
+    }
+
+    @Benchmark
+    public String serialize() {
+        return serializer.serialize(component);
+    }
+
+    @Benchmark
+    public Component deserialize() {
+        return serializer.deserialize(serialized);
+    }
+
+}
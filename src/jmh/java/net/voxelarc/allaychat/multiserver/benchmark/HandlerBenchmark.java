@@ -0,0 +1,109 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import com.google.gson.Gson;
+import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.packet.*;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import net.voxelarc.allaychat.multiserver.transport.PacketRouter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A received packet from the transport's callback to its handler being done, for each packet type: the same calls
+ * the dispatcher makes, on a {@link StubbedModule}. Player targeted packets arrive through the inbox of the server
+ * their player is on, the rest on the group's channels.
+ * <p>
+ * Effects end in stubs, so what is measured is decoding, rendering and whatever the handler publishes in turn.
+ * Inventory packets are left out, their handlers wait for Redis or the server's item serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerBenchmark {
+
+    private static final String GROUP = StubbedModule.GROUP;
+    private static final String PLAYER = StubbedModule.PLAYER;
+
+    // A chat line as the local chat format renders it, hover and click events included
+    private static final String CHAT_COMPONENT = "{\"extra\":[{\"clickEvent\":{\"action\":\"suggest_command\",\"value\":\"/msg Notch \"},"
+            + "\"hoverEvent\":{\"action\":\"show_text\",\"contents\":{\"extra\":[{\"color\":\"gray\",\"text\":\"Rank: \"},{\"color\":\"gold\",\"text\":\"VIP\"}],\"text\":\"\"}},"
+            + "\"color\":\"gold\",\"text\":\"[VIP] Notch\"},{\"color\":\"dark_gray\",\"text\":\" » \"},{\"color\":\"white\",\"text\":\"anyone selling diamonds? paying well\"}],\"text\":\"\"}";
+
+    @Param({
+            "MESSAGE", "CHAT_TEMPLATE", "BROADCAST", "SOUND", "TITLE", "ACTIONBAR", "SEND_MESSAGE", "TEMPLATE_MESSAGE",
+            "MENTION", "SPY", "TEMPLATE_SPY", "PRIVATE_MESSAGE", "DIRECT_MESSAGE", "DELIVERED_MESSAGE", "JOIN", "REPLY", "MUTE"
+    })
+    private String type;
+
+    private PacketRouter router;
+    private String channel;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        StubbedModule stubbed = StubbedModule.get();
+        stubbed.setPlayers(List.of("Notch", "Dinnerbone", "Grumm"));
+        router = stubbed.router;
+
+        String message = "meet me at spawn in five";
+        Object packet = switch (type) {
+            case "MESSAGE" -> new MessagePacket(GROUP, "Notch", CHAT_COMPONENT);
+            case "CHAT_TEMPLATE" -> new ChatTemplatePacket(GROUP, "Notch", "<gold>[VIP] Notch", "anyone selling diamonds? " + PLAYER + " maybe?");
+            case "BROADCAST" -> new BroadcastPacket(GROUP, CHAT_COMPONENT, null);
+            case "SOUND" -> new SoundPacket(PLAYER, "entity.experience_orb.pickup");
+            case "TITLE" -> new TitlePacket(PLAYER, "{\"text\":\"Welcome\",\"color\":\"gold\"}", "{\"text\":\"to skyblock\"}");
+            case "ACTIONBAR" -> new ActionbarPacket(PLAYER, "{\"text\":\"Island level 12\",\"color\":\"green\"}");
+            case "SEND_MESSAGE" -> new SendMessagePacket(PLAYER, CHAT_COMPONENT);
+            case "TEMPLATE_MESSAGE" -> new TemplateMessagePacket(PLAYER, 1, List.of("Notch", message));
+            case "MENTION" -> new MentionPacket(PLAYER, "Notch", GROUP);
+            case "SPY" -> new SpyMessagePacket(CHAT_COMPONENT, GROUP);
+            case "TEMPLATE_SPY" -> new TemplateSpyPacket(GROUP, 3, List.of("Notch", "Grumm", message));
+            case "PRIVATE_MESSAGE" -> new PrivateMessagePacket("Notch", PLAYER, message, GROUP);
+            case "DIRECT_MESSAGE" -> new DirectMessagePacket(GROUP, "Notch", PLAYER, message);
+            case "DELIVERED_MESSAGE" -> new DeliveredMessagePacket(GROUP, PLAYER, "Notch", message);
+            // Without a sequence it is applied every time instead of being dropped as already seen
+            case "JOIN" -> new JoinPacket("Notch", GROUP, StubbedModule.OTHER_SERVER, 0);
+            case "REPLY" -> new SetLastReplyPacket(GROUP, PLAYER, "Notch");
+            case "MUTE" -> new MutePacket(false);
+            default -> throw new IllegalArgumentException(type);
+        };
+
+        channel = packet instanceof TargetedPacket ? router.inboxChannel() : ChannelNames.scoped(GROUP, channelOf(packet));
+
+        // From another server, our own would be dropped as an echo
+        PacketCodec sender = new PacketCodec(PacketFormat.BINARY, new Gson(), UUID.randomUUID());
+        payload = sender.encode(GROUP, packet);
+    }
+
+    @Benchmark
+    public Class<?> receive() {
+        if (!router.accept(channel, payload)) return null;
+
+        Class<?> type = PacketCodec.peekType(payload, PacketRouter.LEGACY_PACKET_TYPES.get(channel));
+        Frame frame = router.decode(channel, payload);
+        if (frame != null) router.handle(channel, frame);
+        return type;
+    }
+
+    private static String channelOf(Object packet) {
+        return switch (packet) {
+            case MessagePacket ignored -> MultiServerModule.MESSAGE_CHANNEL;
+            case ChatTemplatePacket ignored -> MultiServerModule.MESSAGE_CHANNEL;
+            case BroadcastPacket ignored -> MultiServerModule.BROADCAST_CHANNEL;
+            case SpyMessagePacket ignored -> MultiServerModule.SPY_CHANNEL;
+            case TemplateSpyPacket ignored -> MultiServerModule.SPY_CHANNEL;
+            case DeliveredMessagePacket ignored -> MultiServerModule.DM_CHANNEL;
+            case JoinPacket ignored -> MultiServerModule.PLAYER_JOIN_CHANNEL;
+            case SetLastReplyPacket ignored -> MultiServerModule.REPLY_CHANNEL;
+            case MutePacket ignored -> MultiServerModule.MUTE_CHANNEL;
+            default -> throw new IllegalArgumentException(packet.getClass().getSimpleName());
+        };
+    }
+
+}
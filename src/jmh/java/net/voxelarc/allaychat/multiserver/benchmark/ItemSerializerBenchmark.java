@@ -0,0 +1,152 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import net.voxelarc.allaychat.multiserver.util.ItemSerializer;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.openjdk.jmh.annotations.*;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Base64 framing inventories were shared with against the raw byte framing
+ * of {@link ItemSerializer#encodeSlots}, on the bytes alone and through the ItemStack methods the module calls.
+ * Item bytes are synthetic and the ItemStacks are stubs of {@link StubbedModule}, so the server's own
+ * item serialization is not included, the stubs' call overhead is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemSerializerBenchmark {
+
+    // Share of filled slots in a 45 slot player inventory
+    @Param({"0.3", "1.0"})
+    private double fill;
+
+    private byte[][] slots;
+    private String base64;
+    private byte[] raw;
+    private byte[] deflated;
+
+    private ItemStack[] items;
+    private JavaPlugin plugin;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        slots = new byte[45][];
+        for (int i = 0; i < slots.length; i++) {
+            if (random.nextDouble() < fill) slots[i] = itemBytes(random);
+        }
+
+        base64 = base64Encode();
+        raw = ItemSerializer.encodeSlots(slots, false);
+        deflated = ItemSerializer.encodeSlots(slots, true);
+
+        plugin = StubbedModule.get().plugin;
+        items = new ItemStack[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) items[i] = StubbedModule.item(slots[i]);
+        }
+    }
+
+    @Benchmark
+    public String base64Encode() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(outputStream);
+
+        dataOutput.writeInt(slots.length);
+        for (byte[] slot : slots) {
+            dataOutput.writeBoolean(slot != null);
+            if (slot == null) continue;
+
+            dataOutput.writeInt(slot.length);
+            dataOutput.write(slot);
+        }
+
+        dataOutput.close();
+        return Base64Coder.encodeLines(outputStream.toByteArray());
+    }
+
+    @Benchmark
+    public byte[][] base64Decode() throws IOException {
+        DataInputStream dataInput = new DataInputStream(new ByteArrayInputStream(Base64Coder.decodeLines(base64)));
+
+        byte[][] decoded = new byte[dataInput.readInt()][];
+        for (int i = 0; i < decoded.length; i++) {
+            if (!dataInput.readBoolean()) continue;
+
+            decoded[i] = new byte[dataInput.readInt()];
+            dataInput.readFully(decoded[i]);
+        }
+
+        return decoded;
+    }
+
+    @Benchmark
+    public byte[] rawEncode() {
+        return ItemSerializer.encodeSlots(slots, false);
+    }
+
+    @Benchmark
+    public byte[][] rawDecode() {
+        return ItemSerializer.decodeSlots(raw, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public byte[] deflatedEncode() {
+        return ItemSerializer.encodeSlots(slots, true);
+    }
+
+    @Benchmark
+    public byte[][] deflatedDecode() {
+        return ItemSerializer.decodeSlots(deflated, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String itemStackToBase64() {
+        return ItemSerializer.itemStackArrayToBase64(items, plugin);
+    }
+
+    @Benchmark
+    public ItemStack[] itemStackFromBase64() {
+        return ItemSerializer.itemStackArrayFromBase64(base64, plugin);
+    }
+
+    @Benchmark
+    public byte[] itemStackToBytes() {
+        return ItemSerializer.itemStackArrayToBytes(items, false);
+    }
+
+    @Benchmark
+    public ItemStack[] itemStackFromBytes() {
+        return ItemSerializer.itemStackArrayFromBytes(raw, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public byte[] itemStackToDeflatedBytes() {
+        return ItemSerializer.itemStackArrayToBytes(items, true);
+    }
+
+    @Benchmark
+    public ItemStack[] itemStackFromDeflatedBytes() {
+        return ItemSerializer.itemStackArrayFromBytes(deflated, Integer.MAX_VALUE);
+    }
+
+    // Roughly shaped like an item with a custom name and lore, mostly repeated keys and short values
+    private static byte[] itemBytes(Random random) {
+        StringBuilder builder = new StringBuilder("{DataVersion:4189,id:\"minecraft:diamond_sword\",count:1,components:{");
+        builder.append("\"minecraft:custom_name\":'{\"text\":\"Blade ").append(random.nextInt(10_000)).append("\",\"italic\":false}',");
+        builder.append("\"minecraft:lore\":[");
+        int lines = random.nextInt(4);
+        for (int i = 0; i < lines; i++) {
+            builder.append("'{\"text\":\"Line ").append(random.nextLong()).append("\"}',");
+        }
+        builder.append("],\"minecraft:damage\":").append(random.nextInt(1561)).append("}}");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
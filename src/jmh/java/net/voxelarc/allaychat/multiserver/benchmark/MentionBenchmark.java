@@ -0,0 +1,107 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextReplacementConfig;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.voxelarc.allaychat.multiserver.chat.MentionMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-name {@code contains} loop {@code handleMentions} used to run
+ * against the {@link MentionMatcher} automaton with a single component rewrite,
+ * and {@code handleMentions} itself with everyone but the sender on another server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MentionBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int players;
+
+    private final List<String> names = new ArrayList<>();
+    private final MentionMatcher matcher = new MentionMatcher();
+
+    private String message;
+    private Component component;
+    private StubbedModule stubbed;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        Set<String> unique = new HashSet<>();
+        while (unique.size() < players) {
+            unique.add(randomName(random));
+        }
+        names.addAll(unique);
+        matcher.setAll(names);
+
+        message = "hey " + names.get(7 % players) + " are you coming to spawn with " + names.get(13 % players) + " later?";
+        component = Component.text(message);
+
+        stubbed = StubbedModule.get();
+        stubbed.setPlayers(names);
+    }
+
+    @Benchmark
+    public List<String> containsLoop() {
+        List<String> found = new ArrayList<>();
+        for (String name : names) {
+            if (message.contains(name)) found.add(name);
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<String> automaton() {
+        return matcher.findAll(message);
+    }
+
+    @Benchmark
+    public Component containsLoopWithRewrite() {
+        Component result = component;
+        for (String name : names) {
+            if (message.contains(name)) {
+                result = result.replaceText(TextReplacementConfig.builder()
+                        .matchLiteral(name)
+                        .replacement(mention(name))
+                        .build());
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Component automatonWithRewrite() {
+        List<String> found = matcher.findAll(message);
+        if (found.isEmpty()) return component;
+
+        return component.replaceText(TextReplacementConfig.builder()
+                .match(MentionMatcher.toPattern(found))
+                .replacement((result, builder) -> mention(result.group()))
+                .build());
+    }
+
+    @Benchmark
+    public Component handleMentions() {
+        return stubbed.module.getCrossChatManager().handleMentions(stubbed.player, message, component);
+    }
+
+    private static Component mention(String name) {
+        return Component.text("@" + name, NamedTextColor.YELLOW);
+    }
+
+    private static String randomName(Random random) {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
+        int length = 3 + random.nextInt(14);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+}
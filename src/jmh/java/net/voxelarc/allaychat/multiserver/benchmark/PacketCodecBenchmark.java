@@ -0,0 +1,94 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import com.google.gson.Gson;
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.packet.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Bukkit independent half of {@code MultiServerModule.handleMessage} for each packet type:
+ * the group check, decoding and metrics, in both wire formats. The handlers are in {@link HandlerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketCodecBenchmark {
+
+    private static final String GROUP = "skyblock";
+    private static final String CHANNEL = "allaychat:skyblock:message:main";
+
+    // A chat line as the local chat format renders it, hover and click events included
+    private static final String CHAT_COMPONENT = "{\"extra\":[{\"clickEvent\":{\"action\":\"suggest_command\",\"value\":\"/msg Notch \"},"
+            + "\"hoverEvent\":{\"action\":\"show_text\",\"contents\":{\"extra\":[{\"color\":\"gray\",\"text\":\"Rank: \"},{\"color\":\"gold\",\"text\":\"VIP\"}],\"text\":\"\"}},"
+            + "\"color\":\"gold\",\"text\":\"[VIP] Notch\"},{\"color\":\"dark_gray\",\"text\":\" » \"},{\"color\":\"white\",\"text\":\"anyone selling diamonds? paying well\"}],\"text\":\"\"}";
+
+    @Param({"MESSAGE", "PRIVATE_MESSAGE", "SEND_MESSAGE", "TEMPLATE_MESSAGE", "MENTION", "JOIN", "QUIT", "INVENTORY_REFERENCE"})
+    private String type;
+
+    private final PacketCodec binaryCodec = new PacketCodec(PacketFormat.BINARY, new Gson(), UUID.randomUUID());
+    private final PacketCodec jsonCodec = new PacketCodec(PacketFormat.JSON, new Gson(), UUID.randomUUID());
+    private final NetworkMetrics metrics = new NetworkMetrics();
+
+    private Object packet;
+    private byte[] binary;
+    private byte[] json;
+
+    @Setup
+    public void setup() {
+        packet = switch (type) {
+            case "MESSAGE" -> new MessagePacket(GROUP, "Notch", CHAT_COMPONENT);
+            case "PRIVATE_MESSAGE" -> new PrivateMessagePacket("Notch", "jeb_", "meet me at spawn in five", GROUP);
+            case "SEND_MESSAGE" -> new SendMessagePacket("jeb_", CHAT_COMPONENT);
+            case "TEMPLATE_MESSAGE" -> new TemplateMessagePacket("jeb_", 1, List.of("Notch", "meet me at spawn in five"));
+            case "MENTION" -> new MentionPacket("jeb_", "Notch", GROUP);
+            case "JOIN" -> new JoinPacket("Notch", GROUP, UUID.randomUUID().toString(), 1234);
+            case "QUIT" -> new QuitPacket("Notch", GROUP, 1235);
+            case "INVENTORY_REFERENCE" -> new InventoryReferencePacket(GROUP, UUID.randomUUID(), "0123456789abcdef0123456789abcdef");
+            default -> throw new IllegalArgumentException(type);
+        };
+
+        binary = binaryCodec.encode(GROUP, packet);
+        json = jsonCodec.encode(GROUP, packet);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binaryCodec.encode(GROUP, packet);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return jsonCodec.encode(GROUP, packet);
+    }
+
+    @Benchmark
+    public Object receiveBinary() {
+        return receive(binaryCodec, binary);
+    }
+
+    @Benchmark
+    public Object receiveJson() {
+        return receive(jsonCodec, json);
+    }
+
+    // Mirrors handleMessage up to the point where it hands the packet to its handler
+    private Object receive(PacketCodec codec, byte[] message) {
+        if (!codec.belongsTo(message, GROUP)) return null;
+        metrics.recordReceived(CHANNEL, message.length);
+
+        long decodeStart = System.nanoTime();
+        Frame frame = codec.decode(message, packet.getClass());
+        metrics.recordDecode(frame.packet().getClass(), System.nanoTime() - decodeStart);
+        if (frame.origin() != null) metrics.recordDelivery(frame.origin().toString(), frame.sentAt());
+
+        return frame.packet();
+    }
+
+}
@@ -0,0 +1,234 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import com.google.gson.Gson;
+import io.papermc.paper.threadedregions.scheduler.EntityScheduler;
+import net.voxelarc.allaychat.api.AllayChat;
+import net.voxelarc.allaychat.api.chat.ChatManager;
+import net.voxelarc.allaychat.api.config.YamlConfig;
+import net.voxelarc.allaychat.api.module.Module;
+import net.voxelarc.allaychat.api.user.ChatUser;
+import net.voxelarc.allaychat.api.user.UserManager;
+import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.chat.ReplyStore;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.transport.PacketRouter;
+import net.voxelarc.allaychat.multiserver.transport.Transport;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static net.voxelarc.allaychat.multiserver.benchmark.Stubs.returning;
+
+/**
+ * A real {@link MultiServerModule} on a stubbed server, for benchmarking handlers without Paper or Redis.
+ * Bukkit, AllayChat and the players are {@link Stubs} that do nothing but answer, the transport drops
+ * whatever is published. One player is online here and spying, everyone else is on {@link #OTHER_SERVER}.
+ * <p>
+ * The module is set up the way onEnable would, field by field, as onEnable itself opens Redis connections.
+ * Stub calls cost about as much as a reflective call each, which the numbers include.
+ */
+final class StubbedModule {
+
+    static final String GROUP = "skyblock";
+    static final String PLAYER = "jeb_";
+    static final String OTHER_SERVER = UUID.randomUUID().toString();
+
+    // The replacement, messages and private message configs, all in one
+    private static final Map<String, Object> CONFIG = Map.ofEntries(
+            Map.entry("mention.enabled", true),
+            Map.entry("mention.text", "<yellow>@<player></yellow>"),
+            Map.entry("mention.sound", "entity.experience_orb.pickup"),
+            Map.entry("mention.title.enabled", true),
+            Map.entry("mention.title.title", "<yellow>Mentioned"),
+            Map.entry("mention.title.subtitle", "<gray>by <player>"),
+            Map.entry("mention.actionbar", "<yellow><player> mentioned you"),
+            Map.entry("mention.message", "<yellow><player> <gray>mentioned you in chat"),
+            Map.entry("messages.format-self", "<gray>[<gold>me</gold> -> <gold><player></gold>]</gray> <message>"),
+            Map.entry("messages.format-target", "<gray>[<gold><player></gold> -> <gold>me</gold>]</gray> <message>"),
+            Map.entry("messages.spy", "<dark_gray>[spy] <from> -> <to>: <message>"),
+            Map.entry("messages.disabled-other", "<red><player> has private messages turned off"),
+            Map.entry("messages.ignoring-you", "<red><player> is ignoring you")
+    );
+
+    private static StubbedModule instance;
+
+    final MultiServerModule module;
+    final AllayChat plugin;
+    final PacketRouter router;
+    final Player player;
+
+    /**
+     * Bukkit only takes a server once, so every benchmark in the JVM shares one.
+     */
+    static synchronized StubbedModule get() {
+        if (instance == null) instance = new StubbedModule();
+        return instance;
+    }
+
+    private StubbedModule() {
+        UUID serverId = UUID.randomUUID();
+        UUID playerId = UUID.randomUUID();
+
+        // Effects run right away instead of on the player's region thread
+        EntityScheduler scheduler = Stubs.of(EntityScheduler.class, Map.of("run", args -> {
+            ((Consumer<?>) args[1]).accept(null);
+            return null;
+        }));
+
+        player = Stubs.of(Player.class, Map.of(
+                "getName", returning(PLAYER),
+                "getUniqueId", returning(playerId),
+                "isOnline", returning(true),
+                "getScheduler", returning(scheduler)
+        ));
+
+        // Items come back as one shared stub, what the server does with their bytes isn't ours to measure
+        ItemStack deserialized = item(new byte[0]);
+        UnsafeValues unsafe = Stubs.of(UnsafeValues.class, Map.of("deserializeItem", returning(deserialized)));
+
+        List<Player> online = List.of(player);
+        Server server = Stubs.of(Server.class, Map.of(
+                "getLogger", returning(Logger.getLogger("StubbedModule")),
+                "getPlayerExact", args -> PLAYER.equals(args[0]) ? player : null,
+                "getPlayer", args -> playerId.equals(args[0]) ? player : null,
+                "getOnlinePlayers", returning(online),
+                "getUnsafe", returning(unsafe)
+        ));
+        Bukkit.setServer(server);
+
+        YamlConfig config = Stubs.of(YamlConfig.class, Map.of(
+                "getString", args -> (String) CONFIG.get((String) args[0]),
+                "getBoolean", args -> Boolean.TRUE.equals(CONFIG.get((String) args[0]))
+        ));
+
+        ChatUser user = Stubs.of(ChatUser.class, Map.of(
+                "isChatEnabled", returning(true),
+                "isMsgEnabled", returning(true),
+                "isMentionsEnabled", returning(true),
+                "getIgnoredPlayers", returning(Set.of())
+        ));
+        UserManager users = Stubs.of(UserManager.class, Map.of("getUser", returning(user)));
+
+        plugin = Stubs.of(AllayChat.class, Map.of(
+                "getChatManager", returning(Stubs.of(ChatManager.class, Map.of())),
+                "getUserManager", returning(users),
+                "getReplacementConfig", returning(config),
+                "getMessagesConfig", returning(config),
+                "getPrivateMessageConfig", returning(config),
+                "getLogger", returning(Logger.getLogger("AllayChat"))
+        ));
+
+        module = new MultiServerModule();
+        setPlugin(module, plugin);
+        module.onLoad();
+
+        PacketCodec codec = new PacketCodec(PacketFormat.BINARY, new Gson(), serverId);
+        router = new PacketRouter(GROUP, serverId.toString(), codec, routerHost(module), module.getMetrics(), module.getLogger());
+        router.setTransport(new DroppingTransport());
+
+        set(module, "group", GROUP);
+        set(module, "serverId", serverId);
+        set(module, "packetCodec", codec);
+        set(module, "router", router);
+        set(module, "replyStore", new ReplyStore("allaychat:reply:" + GROUP + ":"));
+        set(module, "messageTemplates", true);
+        set(module, "chatTemplates", true);
+        set(module, "chatTemplate", "");
+
+        module.getSpyIndex().update(playerId, true);
+        setPlayers(List.of());
+    }
+
+    /**
+     * Replaces every player of the group, the one here stays.
+     */
+    void setPlayers(Collection<String> elsewhere) {
+        Map<String, String> players = new HashMap<>();
+        elsewhere.forEach(name -> players.put(name, OTHER_SERVER));
+        players.put(PLAYER, module.getServerId().toString());
+        module.getCrossPlayerManager().applySnapshot(1, players);
+    }
+
+    /**
+     * An item handing out the given bytes as its serialized form.
+     */
+    static ItemStack item(byte[] bytes) {
+        return Stubs.of(ItemStack.class, Map.of("isEmpty", returning(false), "serializeAsBytes", returning(bytes)));
+    }
+
+    // AllayChat hands modules their plugin itself, whatever the field is called
+    private static void setPlugin(MultiServerModule module, AllayChat plugin) {
+        for (Field field : Module.class.getDeclaredFields()) {
+            if (!field.getType().isAssignableFrom(AllayChat.class) || field.getType() == Object.class) continue;
+
+            set(module, field, plugin);
+            return;
+        }
+        throw new IllegalStateException("No AllayChat field on " + Module.class.getName());
+    }
+
+    private static PacketRouter.Host routerHost(MultiServerModule module) {
+        try {
+            Constructor<?> constructor = Class.forName(MultiServerModule.class.getName() + "$RouterHost").getDeclaredConstructor(MultiServerModule.class);
+            constructor.setAccessible(true);
+            return (PacketRouter.Host) constructor.newInstance(module);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the module's router host", e);
+        }
+    }
+
+    private static void set(MultiServerModule module, String name, Object value) {
+        try {
+            set(module, MultiServerModule.class.getDeclaredField(name), value);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("MultiServerModule has no field " + name + " anymore", e);
+        }
+    }
+
+    private static void set(Object target, Field field, Object value) {
+        try {
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not set " + field.getName(), e);
+        }
+    }
+
+    private static final class DroppingTransport implements Transport {
+
+        @Override
+        public void subscribe(Collection<String> channels) {
+        }
+
+        @Override
+        public void unsubscribe(Collection<String> channels) {
+        }
+
+        @Override
+        public CompletableFuture<Long> publish(String channel, byte[] payload) {
+            return CompletableFuture.completedFuture(1L);
+        }
+
+        @Override
+        public void close(long timeout, TimeUnit unit) {
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package net.voxelarc.allaychat.multiserver.benchmark;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.util.Map;
+import java.util.function.Function;
+
+import static net.bytebuddy.matcher.ElementMatchers.*;
+
+/**
+ * Stand-ins for Bukkit and AllayChat types, answering the methods they are given by name and returning
+ * null, zero or false for the rest. Subclasses are generated once per type and created without calling
+ * a constructor, as Paper's refuse to run outside a server. Calling one costs about as much as a
+ * reflective call, unlike mocking library stubs which record every invocation.
+ */
+final class Stubs {
+
+    private static final String HANDLER_FIELD = "stubHandler";
+    private static final Objenesis OBJENESIS = new ObjenesisStd(true);
+
+    private static final ClassValue<Class<?>> SUBCLASSES = new ClassValue<>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            return new ByteBuddy()
+                    .subclass(type)
+                    .defineField(HANDLER_FIELD, InvocationHandler.class, Visibility.PUBLIC)
+                    .method(not(isDeclaredBy(Object.class)).and(not(isFinal())))
+                    .intercept(InvocationHandlerAdapter.toField(HANDLER_FIELD))
+                    .make()
+                    .load(type.getClassLoader())
+                    .getLoaded();
+        }
+    };
+
+    private Stubs() {
+    }
+
+    /**
+     * @param answers method name -> what it returns for the given arguments, for every overload
+     */
+    static <T> T of(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        Class<?> subclass = SUBCLASSES.get(type);
+        Object stub = OBJENESIS.newInstance(subclass);
+
+        InvocationHandler handler = (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            return answer != null ? answer.apply(args) : defaultValue(method.getReturnType());
+        };
+
+        try {
+            Field field = subclass.getField(HANDLER_FIELD);
+            field.set(stub, handler);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not stub " + type.getName(), e);
+        }
+
+        return type.cast(stub);
+    }
+
+    static Function<Object[], Object> returning(Object value) {
+        return args -> value;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0F;
+        if (type == double.class) return 0D;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+
+}
@@ -0,0 +1,99 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which servers every published packet should reach and which ones it did,
+ * so lost and duplicated deliveries can be counted once the run is over.
+ */
+public class DeliveryTracker {
+
+    private final Map<String, Expectation> expectations = new ConcurrentHashMap<>();
+
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder unexpected = new LongAdder();
+
+    private long[] latencies = new long[1 << 16];
+    private int latencyCount = 0;
+
+    /**
+     * @param token     unique id carried by the packet
+     * @param receivers how many servers should receive it
+     */
+    public void sent(String token, int receivers) {
+        expectations.put(token, new Expectation(System.nanoTime(), receivers, ConcurrentHashMap.newKeySet()));
+        expected.add(receivers);
+    }
+
+    public void received(String token, int server) {
+        Expectation expectation = expectations.get(token);
+        if (expectation == null) {
+            unexpected.increment();
+            return;
+        }
+
+        // A second copy, or a copy reaching more servers than it was meant for
+        if (!expectation.receivedBy().add(server) || expectation.receivedBy().size() > expectation.receivers()) {
+            duplicated.increment();
+            return;
+        }
+
+        delivered.increment();
+        recordLatency(System.nanoTime() - expectation.sentAt());
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        latencies[latencyCount++] = nanos;
+    }
+
+    public long expected() {
+        return expected.sum();
+    }
+
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    public long lost() {
+        return expected() - delivered();
+    }
+
+    public long duplicated() {
+        return duplicated.sum();
+    }
+
+    /**
+     * @return deliveries of packets this tracker never saw being sent, such as traffic from another run
+     */
+    public long unexpected() {
+        return unexpected.sum();
+    }
+
+    /**
+     * @return latency quantiles in milliseconds, in the order asked for
+     */
+    public synchronized double[] latencyMillis(double... quantiles) {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+
+        double[] result = new double[quantiles.length];
+        if (sorted.length == 0) return result;
+
+        for (int i = 0; i < quantiles.length; i++) {
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(quantiles[i] * sorted.length) - 1);
+            result[i] = sorted[Math.max(0, index)] / 1_000_000D;
+        }
+        return result;
+    }
+
+    private record Expectation(long sentAt, int receivers, Set<Integer> receivedBy) {
+    }
+
+}
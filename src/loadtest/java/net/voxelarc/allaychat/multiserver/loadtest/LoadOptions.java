@@ -0,0 +1,66 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options, given as {@code --name=value}. Rates are per second across the whole network.
+ *
+ * @param redis         Redis URI to run against, empty to start the embedded stand-in
+ * @param transport     pubsub, mesh or loopback, the latter two don't touch Redis at all
+ * @param dm            composite for the packet and the one answer sent back, legacy for the packet and the four sent back,
+ *                      JSON always uses legacy like the module
+ * @param moveRate      players switching servers, each followed by mentions that have to find them through stale routes
+ * @param maxP99Millis  fail the run when the p99 delivery latency is above this, 0 to never fail on latency
+ */
+public record LoadOptions(String redis, String transport, int servers, int players, int seconds, PacketFormat format, String dm,
+                          double chatRate, double msgRate, double mentionRate, double shareRate, double churnRate, double moveRate,
+                          int inventoryBytes, double batchWindowMillis, int batchSize, double maxP99Millis) {
+
+    public static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+
+            int split = arg.indexOf('=');
+            values.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        LoadOptions options = new LoadOptions(
+                values.getOrDefault("redis", ""),
+                values.getOrDefault("transport", "pubsub").toLowerCase(Locale.ROOT),
+                Integer.parseInt(values.getOrDefault("servers", "4")),
+                Integer.parseInt(values.getOrDefault("players", "400")),
+                Integer.parseInt(values.getOrDefault("seconds", "30")),
+                PacketFormat.valueOf(values.getOrDefault("format", "binary").toUpperCase(Locale.ROOT)),
+                values.getOrDefault("dm", "composite").toLowerCase(Locale.ROOT),
+                Double.parseDouble(values.getOrDefault("chat", "200")),
+                Double.parseDouble(values.getOrDefault("msg", "50")),
+                Double.parseDouble(values.getOrDefault("mention", "20")),
+                Double.parseDouble(values.getOrDefault("share", "2")),
+                Double.parseDouble(values.getOrDefault("churn", "5")),
+                Double.parseDouble(values.getOrDefault("move", "5")),
+                Integer.parseInt(values.getOrDefault("inventory-bytes", "4000")),
+                Double.parseDouble(values.getOrDefault("batch-window-ms", "1")),
+                Integer.parseInt(values.getOrDefault("batch-size", "64")),
+                Double.parseDouble(values.getOrDefault("max-p99-ms", "0"))
+        );
+
+        if (!List.of("pubsub", "mesh", "loopback").contains(options.transport())) {
+            throw new IllegalArgumentException("Unknown transport " + options.transport());
+        }
+        if (!List.of("composite", "legacy").contains(options.dm())) {
+            throw new IllegalArgumentException("Unknown private message protocol " + options.dm());
+        }
+        if (options.servers() < 2) throw new IllegalArgumentException("At least two servers are needed");
+        if (options.players() < options.servers()) throw new IllegalArgumentException("Need at least one player per server");
+        return options;
+    }
+
+}
@@ -0,0 +1,166 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.protocol.ProtocolVersion;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.resource.DefaultClientResources;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.redis.OutboundPublisher;
+import net.voxelarc.allaychat.multiserver.redis.RedisTransport;
+import net.voxelarc.allaychat.multiserver.transport.LoopbackTransport;
+import net.voxelarc.allaychat.multiserver.transport.MeshTransport;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs a group of simulated servers against Redis, an embedded stand-in or one of the Redis free transports,
+ * and reports how the traffic fared.
+ * Exits with 1 when packets were lost or duplicated, or the p99 latency is above {@code --max-p99-ms}.
+ * <p>
+ * {@code ./gradlew loadTest -PloadTestArgs="--servers=8 --players=2000 --chat=1000 --seconds=60"}
+ */
+public final class LoadTest {
+
+    private static final RedisCodec<String, byte[]> CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+
+        boolean redis = options.transport().equals("pubsub");
+        RespServer standIn = redis && options.redis().isEmpty() ? new RespServer() : null;
+        String uri = standIn != null ? standIn.uri() : options.redis();
+
+        ClientResources resources = redis ? DefaultClientResources.create() : null;
+        RedisClient client = redis ? RedisClient.create(resources, uri) : null;
+        if (client != null) client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build());
+
+        // A fresh group per run, so runs against a shared Redis never see each other's traffic
+        String group = "loadtest-" + Long.toHexString(System.nanoTime());
+        DeliveryTracker tracker = new DeliveryTracker();
+        Logger logger = Logger.getLogger("LoadTest");
+
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        SimulatedServer.TransportFactory transports = switch (options.transport()) {
+            case "mesh" -> (serverId, receiver) -> new MeshTransport(group, serverId,
+                    new InetSocketAddress("127.0.0.1", 0), group, 64 << 20, receiver, logger);
+            case "loopback" -> (serverId, receiver) -> new LoopbackTransport(hub, receiver);
+            default -> (serverId, receiver) -> new RedisTransport(
+                    new OutboundPublisher(client.connect(CODEC), (long) (options.batchWindowMillis() * 1000), options.batchSize()),
+                    client.connectPubSub(CODEC), null, receiver, logger);
+        };
+
+        List<SimulatedServer> servers = new ArrayList<>();
+        for (int i = 0; i < options.servers(); i++) {
+            servers.add(new SimulatedServer(i, group, options.format(), tracker, transports));
+        }
+
+        // Stands in for the addresses the module would find in Redis
+        if (options.transport().equals("mesh")) {
+            Map<String, String> addresses = new HashMap<>();
+            for (SimulatedServer server : servers) {
+                addresses.put(server.getServerId(), "127.0.0.1:" + ((MeshTransport) server.getTransport()).getLocalAddress().getPort());
+            }
+            for (SimulatedServer server : servers) {
+                ((MeshTransport) server.getTransport()).updatePeers(addresses);
+            }
+            Thread.sleep(500);
+        }
+
+        String target = switch (options.transport()) {
+            case "mesh" -> "a local mesh";
+            case "loopback" -> "the in-process loopback";
+            default -> standIn != null ? "the embedded stand-in" : uri;
+        };
+        System.out.printf(Locale.ROOT, "Running %d servers with %d players for %d s against %s (%s, %s private messages)%n",
+                options.servers(), options.players(), options.seconds(), target, options.format(),
+                options.format() == PacketFormat.BINARY ? options.dm() : "legacy");
+
+        TrafficGenerator traffic = new TrafficGenerator(options, servers, tracker, group);
+        ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor();
+
+        long start = System.nanoTime();
+        driver.scheduleAtFixedRate(traffic::tick, 0, TrafficGenerator.TICK_MILLIS, TimeUnit.MILLISECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.seconds()));
+        driver.shutdown();
+        driver.awaitTermination(5, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // Whatever is still on its way gets a chance to arrive before it counts as lost
+        long delivered = -1;
+        for (int i = 0; i < 50 && delivered != tracker.delivered(); i++) {
+            delivered = tracker.delivered();
+            Thread.sleep(200);
+        }
+
+        double[] latency = tracker.latencyMillis(0.5, 0.9, 0.99, 0.999, 1);
+        long bytesPublished = 0, bytesReceived = 0, malformed = 0, flushes = 0, packets = 0;
+        long dmPacketsPublished = 0, dmBytesPublished = 0, dmPacketsReceived = 0, dmBytesReceived = 0;
+        for (SimulatedServer server : servers) {
+            bytesPublished += server.bytesPublished();
+            bytesReceived += server.bytesReceived();
+            malformed += server.malformed();
+            dmPacketsPublished += server.privateMessagesPublished().packets();
+            dmBytesPublished += server.privateMessagesPublished().bytes();
+            dmPacketsReceived += server.privateMessagesReceived().packets();
+            dmBytesReceived += server.privateMessagesReceived().bytes();
+
+            if (server.getTransport() instanceof RedisTransport transport) {
+                OutboundPublisher.Stats stats = transport.getPublisherStats();
+                flushes += stats.flushes();
+                packets += stats.packets();
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "Published   %d packets, %.0f/s%s%n", traffic.published(), traffic.published() / elapsed,
+                flushes == 0 ? "" : String.format(Locale.ROOT, ", avg batch %.1f", (double) packets / flushes));
+        System.out.printf(Locale.ROOT, "Delivered   %d of %d, %.0f/s%n", tracker.delivered(), tracker.expected(), tracker.delivered() / elapsed);
+        System.out.printf(Locale.ROOT, "Lost        %d%n", tracker.lost());
+        System.out.printf(Locale.ROOT, "Duplicated  %d%n", tracker.duplicated());
+        System.out.printf(Locale.ROOT, "Unexpected  %d, malformed %d%n", tracker.unexpected(), malformed);
+        System.out.printf(Locale.ROOT, "Latency ms  p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                latency[0], latency[1], latency[2], latency[3], latency[4]);
+        System.out.printf(Locale.ROOT, "Payload     %s published, %s received%n", bytes(bytesPublished), bytes(bytesReceived));
+        if (traffic.privateMessages() > 0) {
+            double dms = traffic.privateMessages();
+            System.out.printf(Locale.ROOT, "Private msg %.0f, each %.1f packets / %.0f B published, %.1f packets / %.0f B received%n",
+                    dms, dmPacketsPublished / dms, dmBytesPublished / dms, dmPacketsReceived / dms, dmBytesReceived / dms);
+        }
+        if (standIn != null) {
+            System.out.printf(Locale.ROOT, "Redis       %s in, %s out%n", bytes(standIn.bytesIn()), bytes(standIn.bytesOut()));
+        }
+
+        for (SimulatedServer server : servers) {
+            server.close();
+        }
+        if (client != null) {
+            client.shutdown();
+            resources.shutdown();
+        }
+        if (standIn != null) standIn.close();
+
+        boolean failed = tracker.lost() > 0 || tracker.duplicated() > 0
+                || (options.maxP99Millis() > 0 && latency[2] > options.maxP99Millis());
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static String bytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024D * 1024D));
+    }
+
+}
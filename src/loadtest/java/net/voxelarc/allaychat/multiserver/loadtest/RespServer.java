@@ -0,0 +1,239 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Just enough of the Redis protocol for pub/sub traffic: PING, SUBSCRIBE, UNSUBSCRIBE and PUBLISH over RESP2,
+ * with every other command acknowledged so client handshakes go through. One thread per connection,
+ * which is plenty for a few dozen simulated servers.
+ */
+public class RespServer implements Closeable {
+
+    private final ServerSocket socket;
+    private final Map<String, Set<Client>> subscriptions = new ConcurrentHashMap<>();
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    public RespServer() throws IOException {
+        socket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::accept, "RespServer-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String uri() {
+        return "redis://127.0.0.1:" + socket.getLocalPort();
+    }
+
+    public long bytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long bytesOut() {
+        return bytesOut.sum();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Client client = new Client(socket.accept());
+                clients.add(client);
+
+                Thread thread = new Thread(client::serve, "RespServer-Client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!socket.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private class Client {
+
+        private final Socket connection;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Set<String> channels = new CopyOnWriteArraySet<>();
+
+        private Client(Socket connection) throws IOException {
+            this.connection = connection;
+            connection.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(connection.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024);
+        }
+
+        private void serve() {
+            try {
+                List<byte[]> command;
+                while ((command = readCommand()) != null) {
+                    handle(command);
+
+                    // Pipelined commands are answered in one write
+                    if (in.available() == 0) flush();
+                }
+            } catch (SocketException | EOFException ignored) {
+                // Client went away
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                close();
+            }
+        }
+
+        private void handle(List<byte[]> command) throws IOException {
+            String name = new String(command.getFirst(), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+            switch (name) {
+                case "PING" -> simple("PONG");
+                case "SUBSCRIBE" -> {
+                    for (int i = 1; i < command.size(); i++) {
+                        String channel = new String(command.get(i), StandardCharsets.UTF_8);
+                        channels.add(channel);
+                        subscriptions.computeIfAbsent(channel, key -> new CopyOnWriteArraySet<>()).add(this);
+                        subscriptionReply("subscribe", command.get(i));
+                    }
+                }
+                case "UNSUBSCRIBE" -> {
+                    List<String> targets = new ArrayList<>();
+                    for (int i = 1; i < command.size(); i++) {
+                        targets.add(new String(command.get(i), StandardCharsets.UTF_8));
+                    }
+                    if (targets.isEmpty()) targets.addAll(channels);
+
+                    for (String channel : targets) {
+                        channels.remove(channel);
+                        Set<Client> subscribers = subscriptions.get(channel);
+                        if (subscribers != null) subscribers.remove(this);
+                        subscriptionReply("unsubscribe", channel.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                case "PUBLISH" -> {
+                    Set<Client> subscribers = subscriptions.getOrDefault(new String(command.get(1), StandardCharsets.UTF_8), Set.of());
+                    for (Client subscriber : subscribers) {
+                        subscriber.deliver(command.get(1), command.get(2));
+                    }
+                    integer(subscribers.size());
+                }
+                case "HELLO" -> error("NOPROTO this stand-in only speaks RESP2");
+                default -> simple("OK"); // CLIENT SETINFO, SELECT and friends
+            }
+        }
+
+        private synchronized void deliver(byte[] channel, byte[] payload) {
+            try {
+                write("*3\r\n$7\r\nmessage\r\n");
+                bulk(channel);
+                bulk(payload);
+                // The owning thread only flushes when its own input runs dry, which a pure subscriber never does
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private synchronized void subscriptionReply(String kind, byte[] channel) throws IOException {
+            write("*3\r\n$" + kind.length() + "\r\n" + kind + "\r\n");
+            bulk(channel);
+            write(":" + channels.size() + "\r\n");
+        }
+
+        private synchronized void simple(String value) throws IOException {
+            write("+" + value + "\r\n");
+        }
+
+        private synchronized void error(String value) throws IOException {
+            write("-" + value + "\r\n");
+        }
+
+        private synchronized void integer(long value) throws IOException {
+            write(":" + value + "\r\n");
+        }
+
+        private void bulk(byte[] value) throws IOException {
+            write("$" + value.length + "\r\n");
+            out.write(value);
+            out.write('\r');
+            out.write('\n');
+            bytesOut.add(value.length + 2);
+        }
+
+        private void write(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes);
+            bytesOut.add(bytes.length);
+        }
+
+        private synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        private List<byte[]> readCommand() throws IOException {
+            int type = in.read();
+            if (type == -1) return null;
+            if (type != '*') throw new IOException("Expected an array, got " + (char) type);
+
+            int count = (int) readNumber();
+            List<byte[]> parts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (in.read() != '$') throw new IOException("Expected a bulk string");
+
+                int length = (int) readNumber();
+                byte[] part = in.readNBytes(length);
+                if (part.length != length || in.read() != '\r' || in.read() != '\n') throw new EOFException();
+                parts.add(part);
+                bytesIn.add(length);
+            }
+            return parts;
+        }
+
+        private long readNumber() throws IOException {
+            long value = 0;
+            boolean negative = false;
+            int read;
+            while ((read = in.read()) != '\r') {
+                if (read == -1) throw new EOFException();
+                if (read == '-') {
+                    negative = true;
+                } else {
+                    value = value * 10 + (read - '0');
+                }
+            }
+            if (in.read() != '\n') throw new IOException("Malformed number");
+            return negative ? -value : value;
+        }
+
+        private void close() {
+            clients.remove(this);
+            for (String channel : channels) {
+                Set<Client> subscribers = subscriptions.get(channel);
+                if (subscribers != null) subscribers.remove(this);
+            }
+
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,260 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.packet.*;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import net.voxelarc.allaychat.multiserver.transport.PacketRouter;
+import net.voxelarc.allaychat.multiserver.transport.Transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * A server running the module's {@link PacketRouter} with the same codec, transports and channel layout,
+ * with packets handed to a {@link DeliveryTracker} instead of players. Routes are learned from join and quit
+ * packets like the module does, so they go stale the same way when players move.
+ */
+public class SimulatedServer {
+
+    // Everything a private message puts on the network, in either protocol
+    private static final Set<Class<?>> PRIVATE_MESSAGE_TRAFFIC = Set.of(
+            PrivateMessagePacket.class, DirectMessagePacket.class, DeliveredMessagePacket.class, SendMessagePacket.class, TemplateMessagePacket.class,
+            SetLastReplyPacket.class, SpyMessagePacket.class, TemplateSpyPacket.class
+    );
+
+    @Getter private final int index;
+    @Getter private final String serverId = UUID.randomUUID().toString();
+
+    private final DeliveryTracker tracker;
+    private final NetworkMetrics metrics = new NetworkMetrics();
+    private final PacketRouter router;
+
+    @Getter private final Transport transport;
+
+    private final Map<String, String> routes = new ConcurrentHashMap<>(); // Player -> server id
+    private final Set<String> players = ConcurrentHashMap.newKeySet(); // Online here
+
+    private final LongAdder bytesPublished = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final Traffic privateMessagesPublished = new Traffic();
+    private final Traffic privateMessagesReceived = new Traffic();
+
+    public SimulatedServer(int index, String group, PacketFormat format, DeliveryTracker tracker, TransportFactory transports) throws IOException {
+        this.index = index;
+        this.tracker = tracker;
+
+        PacketCodec codec = new PacketCodec(format, new Gson(), UUID.fromString(serverId));
+        this.router = new PacketRouter(group, serverId, codec, new Host(), metrics, Logger.getLogger("LoadTest"));
+        this.transport = transports.create(serverId, this::receive);
+        router.setTransport(new CountingTransport(transport));
+
+        List<String> channels = new ArrayList<>();
+        for (String channel : PacketRouter.CHANNELS) {
+            channels.add(channel);
+            channels.add(ChannelNames.scoped(group, channel));
+        }
+        channels.add(router.inboxChannel());
+        transport.subscribe(channels);
+    }
+
+    /**
+     * Publishes to every server of the group, like the module.
+     */
+    public void publish(String channel, Object packet) {
+        router.publish(channel, packet);
+    }
+
+    /**
+     * Publishes to the server this one thinks the target player is on, like the module.
+     */
+    public void publishTo(String channel, TargetedPacket packet) {
+        router.publishTo(channel, packet);
+    }
+
+    public void addPlayer(String playerName) {
+        players.add(playerName);
+    }
+
+    public void removePlayer(String playerName) {
+        players.remove(playerName);
+    }
+
+    /**
+     * Stands in for the directory snapshot a server loads when it starts.
+     */
+    public void setRoute(String playerName, String serverId) {
+        routes.put(playerName, serverId);
+    }
+
+    private void receive(String channel, byte[] message) {
+        if (!router.accept(channel, message)) return;
+
+        Frame frame = router.decode(channel, message);
+        if (frame == null) return;
+
+        bytesReceived.add(message.length);
+        if (PRIVATE_MESSAGE_TRAFFIC.contains(frame.packet().getClass())) privateMessagesReceived.add(message.length);
+        router.handle(channel, frame);
+    }
+
+    private void handle(Object packet) {
+        // Only the target's server shows it, the others drop it like the module's handlers
+        if (packet instanceof TargetedPacket targeted && !players.contains(targeted.targetPlayer())) return;
+
+        String token = switch (packet) {
+            case MessagePacket message -> message.serializedComponent();
+            case PrivateMessagePacket message -> message.message();
+            case DirectMessagePacket message -> message.message();
+            case MentionPacket mention -> mention.mentionerPlayer();
+            case InventoryPacket inventory -> inventory.id().toString();
+            case InventoryReferencePacket reference -> reference.id().toString();
+            case JoinPacket join -> {
+                routes.put(join.playerName(), join.serverId());
+                yield "join:" + join.sequence();
+            }
+            case QuitPacket quit -> {
+                routes.remove(quit.playerName());
+                yield "quit:" + quit.sequence();
+            }
+            default -> null;
+        };
+
+        if (token != null) tracker.received(token, index);
+    }
+
+    public long bytesPublished() {
+        return bytesPublished.sum();
+    }
+
+    public long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long malformed() {
+        return metrics.malformed();
+    }
+
+    /**
+     * Packets and bytes this server published for private messages.
+     */
+    public Traffic privateMessagesPublished() {
+        return privateMessagesPublished;
+    }
+
+    /**
+     * Packets and bytes this server received and decoded for private messages.
+     */
+    public Traffic privateMessagesReceived() {
+        return privateMessagesReceived;
+    }
+
+    public void close() {
+        transport.close(5, TimeUnit.SECONDS);
+    }
+
+    public static final class Traffic {
+
+        private final LongAdder packets = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private void add(int length) {
+            packets.increment();
+            bytes.add(length);
+        }
+
+        public long packets() {
+            return packets.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+    }
+
+    private final class Host implements PacketRouter.Host {
+
+        @Override
+        public String routeOf(String playerName) {
+            return routes.get(playerName);
+        }
+
+        @Override
+        public void removeRoute(String playerName, String serverId) {
+            routes.remove(playerName, serverId);
+        }
+
+        @Override
+        public boolean isHere(String playerName) {
+            return players.contains(playerName);
+        }
+
+        @Override
+        public void handle(String channel, Object packet) {
+            SimulatedServer.this.handle(packet);
+        }
+
+        @Override
+        public String serverName(String serverId) {
+            return serverId;
+        }
+
+    }
+
+    // Counts what the router publishes, by packet type for private messages
+    private final class CountingTransport implements Transport {
+
+        private final Transport delegate;
+
+        private CountingTransport(Transport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void subscribe(Collection<String> channels) {
+            delegate.subscribe(channels);
+        }
+
+        @Override
+        public void unsubscribe(Collection<String> channels) {
+            delegate.unsubscribe(channels);
+        }
+
+        @Override
+        public CompletableFuture<Long> publish(String channel, byte[] payload) {
+            bytesPublished.add(payload.length);
+            if (PRIVATE_MESSAGE_TRAFFIC.contains(PacketCodec.peekType(payload, PacketRouter.LEGACY_PACKET_TYPES.get(channel)))) {
+                privateMessagesPublished.add(payload.length);
+            }
+            return delegate.publish(channel, payload);
+        }
+
+        @Override
+        public void close(long timeout, TimeUnit unit) {
+            delegate.close(timeout, unit);
+        }
+
+    }
+
+    @FunctionalInterface
+    public interface TransportFactory {
+        Transport create(String serverId, BiConsumer<String, byte[]> receiver) throws IOException;
+    }
+
+}
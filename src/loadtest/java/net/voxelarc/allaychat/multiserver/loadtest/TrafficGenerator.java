@@ -0,0 +1,273 @@
+package net.voxelarc.allaychat.multiserver.loadtest;
+
+import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.packet.*;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives synthetic players through the traffic a real group sees, at the configured rates.
+ * Called every {@link #TICK_MILLIS} ms from a single thread.
+ */
+public class TrafficGenerator {
+
+    public static final int TICK_MILLIS = 10;
+
+    // A player moving again while packets are still looking for them could be missed by both servers, in the
+    // module as well, so they stay put until anything sent to their old server has found them
+    private static final long SETTLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final LoadOptions options;
+    private final List<SimulatedServer> servers;
+    private final DeliveryTracker tracker;
+    private final String group;
+
+    // Server index per player, -1 while offline. Only touched from the tick thread.
+    private final int[] location;
+    // The server a player was last on, which still takes packets that were on their way when they quit
+    private final int[] last;
+    private final long[] settledAt; // System.nanoTime after which the player may change servers again
+    private final String[] names;
+    private int online;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder privateMessages = new LongAdder();
+    private final boolean compositeDMs;
+
+    private final String serializedItems;
+
+    private double chatCarry, msgCarry, mentionCarry, shareCarry, churnCarry, moveCarry;
+
+    public TrafficGenerator(LoadOptions options, List<SimulatedServer> servers, DeliveryTracker tracker, String group) {
+        this.options = options;
+        this.servers = servers;
+        this.tracker = tracker;
+        this.group = group;
+        this.compositeDMs = options.format() == PacketFormat.BINARY && options.dm().equals("composite");
+
+        this.location = new int[options.players()];
+        this.last = new int[options.players()];
+        this.settledAt = new long[options.players()];
+        this.names = new String[options.players()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Player" + i;
+            location[i] = last[i] = i % servers.size();
+            servers.get(location[i]).addPlayer(names[i]);
+            for (SimulatedServer server : servers) {
+                server.setRoute(names[i], servers.get(location[i]).getServerId());
+            }
+        }
+        this.online = names.length;
+
+        byte[] items = new byte[options.inventoryBytes()];
+        ThreadLocalRandom.current().nextBytes(items);
+        this.serializedItems = Base64.getMimeEncoder().encodeToString(items);
+    }
+
+    public void tick() {
+        double seconds = TICK_MILLIS / 1000D;
+
+        chatCarry += options.chatRate() * seconds;
+        for (; chatCarry >= 1; chatCarry--) chat();
+
+        msgCarry += options.msgRate() * seconds;
+        for (; msgCarry >= 1; msgCarry--) privateMessage();
+
+        mentionCarry += options.mentionRate() * seconds;
+        for (; mentionCarry >= 1; mentionCarry--) mention();
+
+        shareCarry += options.shareRate() * seconds;
+        for (; shareCarry >= 1; shareCarry--) shareInventory();
+
+        churnCarry += options.churnRate() * seconds;
+        for (; churnCarry >= 1; churnCarry--) churn();
+
+        moveCarry += options.moveRate() * seconds;
+        for (; moveCarry >= 1; moveCarry--) move();
+    }
+
+    public long published() {
+        return published.sum();
+    }
+
+    public long privateMessages() {
+        return privateMessages.sum();
+    }
+
+    private void chat() {
+        int player = randomOnline();
+        String token = "{\"text\":\"" + names[player] + ": message " + sequence.incrementAndGet() + "\"}";
+
+        broadcast(location[player], MultiServerModule.MESSAGE_CHANNEL, new MessagePacket(group, names[player], token), token);
+    }
+
+    private void privateMessage() {
+        int[] pair = playersOnDifferentServers();
+        String sender = names[pair[0]];
+        String recipient = names[pair[1]];
+        String token = "dm " + sequence.incrementAndGet();
+        privateMessages.increment();
+
+        if (compositeDMs) {
+            route(pair[0], MultiServerModule.DM_CHANNEL, new DirectMessagePacket(group, sender, recipient, token), token);
+
+            // The recipient's server answers once it has shown the message, untracked as only the counts matter
+            servers.get(location[pair[1]]).publish(MultiServerModule.DM_CHANNEL, new DeliveredMessagePacket(group, sender, recipient, token));
+            published.increment();
+            return;
+        }
+
+        route(pair[0], MultiServerModule.DM_CHANNEL, new PrivateMessagePacket(sender, recipient, token, group), token);
+
+        // What the recipient's server sends back once it has shown the message, untracked as only the counts matter.
+        // Template ids are PM_FORMAT_SELF and PM_SPY, the enum itself needs AllayChat on the classpath
+        SimulatedServer recipientServer = servers.get(location[pair[1]]);
+        boolean templates = options.format() == PacketFormat.BINARY;
+        recipientServer.publishTo(MultiServerModule.SEND_MESSAGE_CHANNEL, templates
+                ? new TemplateMessagePacket(sender, 1, List.of(recipient, token))
+                : new SendMessagePacket(sender, "{\"text\":\"To " + recipient + ": " + token + "\"}"));
+        recipientServer.publish(MultiServerModule.REPLY_CHANNEL, new SetLastReplyPacket(group, sender, recipient));
+        recipientServer.publish(MultiServerModule.REPLY_CHANNEL, new SetLastReplyPacket(group, recipient, sender));
+        recipientServer.publish(MultiServerModule.SPY_CHANNEL, templates
+                ? new TemplateSpyPacket(group, 3, List.of(sender, recipient, token))
+                : new SpyMessagePacket("{\"text\":\"" + sender + " -> " + recipient + ": " + token + "\"}", group));
+        published.add(4);
+    }
+
+    private void mention() {
+        int[] pair = playersOnDifferentServers();
+        mention(pair[0], pair[1]);
+    }
+
+    private void mention(int from, int to) {
+        // The mentioner's name doubles as the token, the packet has no free text field
+        String token = names[from] + "#" + sequence.incrementAndGet();
+
+        route(from, MultiServerModule.MENTION_CHANNEL, new MentionPacket(names[to], token, group), token);
+    }
+
+    private void shareInventory() {
+        int player = randomOnline();
+        UUID id = UUID.randomUUID();
+
+        // Binary servers only publish a reference, the snapshot itself goes to a Redis key
+        Object packet = options.format() == PacketFormat.JSON
+                ? new InventoryPacket(group, id, serializedItems, "{\"text\":\"" + names[player] + "'s inventory\"}", 45)
+                : new InventoryReferencePacket(group, id, Long.toHexString(id.getMostSignificantBits()));
+
+        broadcast(location[player], MultiServerModule.INVENTORY_CHANNEL, packet, id.toString());
+    }
+
+    private void churn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int player = random.nextInt(names.length);
+
+        long seq = sequence.incrementAndGet();
+        // Keep enough players around for messages between servers to always find a pair
+        if (location[player] >= 0 && online > servers.size() * 2) {
+            // Their last server keeps them, anything already on its way to them still counts there
+            int server = location[player];
+            location[player] = -1;
+            online--;
+            broadcast(server, MultiServerModule.PLAYER_QUIT_CHANNEL, new QuitPacket(names[player], group, seq), "quit:" + seq);
+        } else if (location[player] < 0) {
+            online++;
+            join(player, settled(player) ? random.nextInt(servers.size()) : last[player], seq);
+        }
+    }
+
+    /**
+     * Moves a player to another server without a quit, and mentions them right away from their old server
+     * and from a third one. Both still route to the old server until the join reaches them: the old one
+     * must not publish to its own inbox, the third one's packet must come back out of the old server's inbox.
+     */
+    private void move() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int player = randomOnline();
+        if (!settled(player)) return;
+
+        int from = location[player];
+        int to = (from + 1 + random.nextInt(servers.size() - 1)) % servers.size();
+
+        join(player, to, sequence.incrementAndGet());
+
+        int neighbour = randomOnlineOn(from, player);
+        if (neighbour >= 0) mention(neighbour, player);
+
+        if (servers.size() > 2) {
+            int third;
+            do {
+                third = random.nextInt(servers.size());
+            } while (third == from || third == to);
+
+            int stranger = randomOnlineOn(third, player);
+            if (stranger >= 0) mention(stranger, player);
+        }
+    }
+
+    private void join(int player, int server, long seq) {
+        if (last[player] != server) {
+            servers.get(last[player]).removePlayer(names[player]);
+            servers.get(server).addPlayer(names[player]);
+            settledAt[player] = System.nanoTime() + SETTLE_NANOS;
+        }
+        location[player] = last[player] = server;
+
+        broadcast(server, MultiServerModule.PLAYER_JOIN_CHANNEL,
+                new JoinPacket(names[player], group, servers.get(server).getServerId(), seq), "join:" + seq);
+    }
+
+    private void broadcast(int from, String channel, Object packet, String token) {
+        // Publishers are subscribed to their own channels too, the module relies on that echo for chat
+        tracker.sent(token, servers.size());
+        servers.get(from).publish(channel, packet);
+        published.increment();
+    }
+
+    private void route(int from, String channel, TargetedPacket packet, String token) {
+        tracker.sent(token, 1);
+        servers.get(location[from]).publishTo(channel, packet);
+        published.increment();
+    }
+
+    private boolean settled(int player) {
+        return System.nanoTime() - settledAt[player] >= 0;
+    }
+
+    private int randomOnline() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            int player = random.nextInt(names.length);
+            if (location[player] >= 0) return player;
+        }
+    }
+
+    /**
+     * @return a random player online on the server other than the one given, or -1 if there is none after a few tries
+     */
+    private int randomOnlineOn(int server, int except) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 64; i++) {
+            int player = random.nextInt(names.length);
+            if (player != except && location[player] == server) return player;
+        }
+        return -1;
+    }
+
+    private int[] playersOnDifferentServers() {
+        while (true) {
+            int from = randomOnline();
+            int to = randomOnline();
+            if (location[from] != location[to]) return new int[]{from, to};
+        }
+    }
+
+}
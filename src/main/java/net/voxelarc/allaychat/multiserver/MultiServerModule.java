@@ -2,17 +2,17 @@ package net.voxelarc.allaychat.multiserver;
 
 import com.google.gson.Gson;
 import io.lettuce.core.RedisClient;
-import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.async.RedisAsyncCommands;
-import io.lettuce.core.api.sync.RedisCommands;
-import io.lettuce.core.pubsub.RedisPubSubAdapter;
-import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
-import io.lettuce.core.pubsub.api.async.RedisPubSubAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import lombok.Getter;
 import net.kyori.adventure.key.Key;
 import net.kyori.adventure.sound.Sound;
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
 import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 import net.kyori.adventure.title.Title;
 import net.voxelarc.allaychat.api.AllayChat;
@@ -20,20 +20,63 @@ import net.voxelarc.allaychat.api.chat.ChatManager;
 import net.voxelarc.allaychat.api.inventory.impl.AllayInventory;
 import net.voxelarc.allaychat.api.module.Module;
 import net.voxelarc.allaychat.api.user.ChatUser;
+import net.voxelarc.allaychat.api.util.ChatUtils;
 import net.voxelarc.allaychat.multiserver.chat.CrossChatManager;
+import net.voxelarc.allaychat.multiserver.chat.MessageTemplate;
+import net.voxelarc.allaychat.multiserver.chat.ReplyStore;
+import net.voxelarc.allaychat.multiserver.chat.SenderRateLimiter;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.dispatch.PacketDispatcher;
+import net.voxelarc.allaychat.multiserver.inventory.InventorySnapshot;
+import net.voxelarc.allaychat.multiserver.inventory.InventorySnapshotStore;
 import net.voxelarc.allaychat.multiserver.listener.ConnectionListener;
+import net.voxelarc.allaychat.multiserver.metrics.MetricsCommand;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
 import net.voxelarc.allaychat.multiserver.packet.*;
 import net.voxelarc.allaychat.multiserver.player.CrossPlayerManager;
+import net.voxelarc.allaychat.multiserver.player.PlayerDirectory;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import net.voxelarc.allaychat.multiserver.redis.ConnectionLane;
+import net.voxelarc.allaychat.multiserver.redis.OutboundPublisher;
+import net.voxelarc.allaychat.multiserver.redis.RedisTransport;
+import net.voxelarc.allaychat.multiserver.redis.StreamTransport;
+import net.voxelarc.allaychat.multiserver.transport.MeshTransport;
+import net.voxelarc.allaychat.multiserver.transport.PacketRouter;
+import net.voxelarc.allaychat.multiserver.transport.Transport;
+import net.voxelarc.allaychat.multiserver.user.IgnoreIndex;
+import net.voxelarc.allaychat.multiserver.user.SpyIndex;
 import net.voxelarc.allaychat.multiserver.util.ItemSerializer;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 
@@ -41,6 +84,8 @@ public final class MultiServerModule extends Module {
 
     public static final Gson GSON = new Gson();
 
+    private static final RedisCodec<String, byte[]> PACKET_CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
     public static final String MESSAGE_CHANNEL = "allaychat:message:main";
 
     public static final String PLAY_SOUND_CHANNEL = "allaychat:send:sound";
@@ -63,11 +108,48 @@ public final class MultiServerModule extends Module {
     public static final String PLAYER_CLEAR_CHANNEL = "allaychat:player:clear";
     public static final String PLAYER_LIST_MAP_KEY = "allaychat:players:";
     public static final String SERVER_LIST_MAP_KEY = "allaychat:servers:";
+    public static final String INVENTORY_SNAPSHOT_KEY = "allaychat:inventories:";
+    public static final String REPLY_KEY = "allaychat:replies:";
+    public static final String MUTE_KEY = "allaychat:muted:";
+
+    // Cosmetic effects a lagging streams reader may skip once they are stale
+    private static final Set<String> LOW_PRIORITY_CHANNELS = Set.of(
+            PLAY_SOUND_CHANNEL, TITLE_CHANNEL, ACTIONBAR_CHANNEL, MENTION_CHANNEL
+    );
+
+    private static final String RATE_LIMIT_BYPASS_PERMISSION = "allaychat.ratelimit.bypass";
+
+    // Origin label for servers that didn't announce a name yet, or predate names
+    private static final String UNKNOWN_SERVER_NAME = "unknown";
+
+    // Renders chat templates from servers whose own chat-template is set while ours is not
+    private static final String DEFAULT_CHAT_TEMPLATE = "<display_name><gray>:</gray> <message>";
+
+    // Servers predating leases only leave a heartbeat timestamp behind
+    private static final long LEGACY_HEARTBEAT_TIMEOUT = TimeUnit.MINUTES.toMillis(3);
+
+    // Connect attempts wait 1, 2, 4... seconds in between, never longer than this
+    private static final long MAX_CONNECT_DELAY_SECONDS = 30;
+
+    // User indexes follow commands as they run, the sweep only catches changes made any other way
+    private static final long USER_INDEX_SWEEP_SECONDS = 30;
 
     private RedisClient redisClient;
 
-    private StatefulRedisConnection<String, String> redisConnection; // Everything else
-    private StatefulRedisPubSubConnection<String, String> pubSubConnection; // Sub
+    // Separate connections for outgoing packets, what players wait on, maintenance and subscriptions
+    private ConnectionLane publishLane;
+    private ConnectionLane interactiveLane;
+    private ConnectionLane bulkLane;
+    private ConnectionLane pubSubLane;
+    private RedisAsyncCommands<String, String> interactiveCommands;
+    private RedisAsyncCommands<String, String> bulkCommands;
+    private volatile Transport transport; // Set once connected, see connect
+    private PacketDispatcher dispatcher;
+    private PacketRouter router;
+    private StreamTransport streamTransport; // Only in streams mode
+    private final StreamTransport.Cursors streamCursors = new StreamTransport.Cursors(); // Survive reconnects
+
+    @Getter private PacketCodec packetCodec;
 
     @Getter private String group;
     @Getter private UUID serverId;
@@ -77,6 +159,35 @@ public final class MultiServerModule extends Module {
     @Getter private CrossChatManager crossChatManager;
     @Getter private CrossPlayerManager crossPlayerManager;
 
+    @Getter private PlayerDirectory playerDirectory;
+    @Getter private InventorySnapshotStore inventorySnapshots;
+    @Getter private ReplyStore replyStore;
+    @Getter private boolean inventoryCompression;
+    private int maxInventoryBytes;
+    private boolean messageTemplates;
+    @Getter private boolean chatTemplates;
+    private String chatTemplate;
+    @Getter private String serverName;
+    // Server id -> name, as announced in the directory
+    private volatile Map<String, String> serverNames = Map.of();
+    private long leaseMillis;
+    private long readyTimeoutSeconds;
+    private int connectAttempts;
+    private boolean localOnlyFallback;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    // False until connected, which a server running local only may never be
+    private volatile boolean connected;
+
+    private SenderRateLimiter senderRateLimiter;
+
+    @Getter private final IgnoreIndex ignoreIndex = new IgnoreIndex();
+    @Getter private final SpyIndex spyIndex = new SpyIndex();
+    private Set<String> spyChannels = Set.of(); // Ignored by the router while no spy is here
+    private List<String> spySubscriptions = List.of(); // The ones we can unsubscribe from
+    private volatile boolean spySubscribed;
+    @Getter private final NetworkMetrics metrics = new NetworkMetrics();
+    private MetricsCommand metricsCommand;
+
     @Override
     public void onLoad() {
         localChatManager = getPlugin().getChatManager();
@@ -97,83 +208,455 @@ public final class MultiServerModule extends Module {
         group = getConfig().getString("group");
         serverId = UUID.randomUUID();
 
-        getLogger().info("ServerID: " + serverId);
+        // The id changes on every start, metrics name servers by something that doesn't
+        serverName = getConfig().getString("server-name", "");
+        if (serverName.isEmpty()) serverName = defaultServerName();
+
+        getLogger().info("ServerID: " + serverId + ", server name: " + serverName);
+
+        // Servers upgraded from a version without this option keep talking JSON until switched over explicitly
+        String formatName = getConfig().getString("packet-format", "json");
+        PacketFormat format;
+        try {
+            format = PacketFormat.valueOf(formatName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Unknown packet-format '" + formatName + "', using json instead");
+            format = PacketFormat.JSON;
+        }
+        packetCodec = new PacketCodec(format, GSON, serverId);
+        getLogger().info("Publishing packets as " + format);
+        router = new PacketRouter(group, serverId.toString(), packetCodec, new RouterHost(), metrics, getLogger());
+
+        // Template packets are binary only, a JSON group may still contain servers that don't know them
+        messageTemplates = format == PacketFormat.BINARY && getConfig().getBoolean("message-templates", true);
+
+        // Off unless a format is set, AllayChat's own chat format may need the sender to be on the rendering server
+        chatTemplate = getConfig().getString("chat-template", "");
+        chatTemplates = messageTemplates && !chatTemplate.isEmpty();
 
         redisClient = RedisClient.create(getConfig().getString("redis-uri"));
+        publishLane = createLane("publish", 1, 2000);
+        interactiveLane = createLane("interactive", 1, 2000);
+        bulkLane = createLane("bulk", 1, 10000);
+        pubSubLane = createLane("pubsub", 1, 5000);
+        inventoryCompression = getConfig().getBoolean("inventory-compression", false);
+        // A snapshot inflating to more than the whole cache could never be cached, so it is refused as corrupt
+        maxInventoryBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, getConfig().getLong("inventory-cache-max-mb", 16)) << 20);
+        crossChatManager.setInventoryCacheLimit(maxInventoryBytes);
+        leaseMillis = Math.max(3, getConfig().getInt("server-lease-seconds", 30)) * 1000L;
+        readyTimeoutSeconds = Math.max(1, getConfig().getLong("startup.ready-timeout-seconds", 30));
+        connectAttempts = Math.max(1, getConfig().getInt("startup.connect-attempts", 5));
+        localOnlyFallback = getConfig().getBoolean("startup.local-only-fallback", false);
+
+        replyStore = new ReplyStore(REPLY_KEY + group + ":");
+        metrics.gauge("reply_cache_entries", "Reply pairs cached for players on this server", replyStore::size);
+
+        // Every server of a group has to use the same transport, they don't see each other's traffic
+        String transportType = getConfig().getString("transport", "pubsub").toLowerCase(Locale.ROOT);
+        if (transportType.equals("mesh") && format == PacketFormat.JSON) {
+            // A JSON group may contain servers that only ever listen on Redis
+            getLogger().warning("The mesh transport needs packet-format: binary, using pub/sub instead");
+            transportType = "pubsub";
+        }
 
-        redisConnection = redisClient.connect();
-        pubSubConnection = redisClient.connectPubSub();
+        senderRateLimiter = new SenderRateLimiter(
+                getConfig().getDouble("rate-limit.messages-per-second", 2),
+                getConfig().getInt("rate-limit.burst", 8)
+        );
+        metrics.gauge("rate_limited_messages", "Chat and private messages refused because their sender was over the rate limit", senderRateLimiter::limited);
+
+        // Transports call in on their I/O thread, handling happens on virtual threads instead
+        dispatcher = new PacketDispatcher(
+                getConfig().getInt("dispatcher.queue-capacity", 4096),
+                getConfig().getLong("dispatcher.cosmetic-max-age-ms", 1000),
+                (channel, payload) -> PacketCodec.peekType(payload, PacketRouter.LEGACY_PACKET_TYPES.get(channel)),
+                router::decode,
+                router::handle,
+                metrics,
+                getLogger()
+        );
+
+        metricsCommand = new MetricsCommand(metrics);
+        Bukkit.getCommandMap().register("allaychat", metricsCommand);
+
+        // Written next to AllayChat's own files, point a node exporter textfile collector at it
+        String prometheusFile = getConfig().getString("metrics.prometheus-file", "");
+        if (!prometheusFile.isEmpty()) {
+            Path path = getPlugin().getDataFolder().toPath().resolve(prometheusFile);
+            long interval = Math.max(1, getConfig().getLong("metrics.prometheus-interval-seconds", 15));
+            Consumer<ScheduledTask> prometheusTask = (task) -> writePrometheus(path);
+            Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), prometheusTask, interval, interval, TimeUnit.SECONDS);
+        }
 
-        RedisPubSubAsyncCommands<String, String> connection = pubSubConnection.async();
-        pubSubConnection.addListener(new RedisPubSubAdapter<>() {
-            @Override
-            public void message(String channel, String message) {
-                handleMessage(channel, message);
+        registerListeners(new ConnectionListener(this));
+
+        // Connecting blocks, so it happens off the main thread and logins wait for it in awaitReady instead
+        long startedAt = System.nanoTime();
+        String selectedTransport = transportType;
+        Bukkit.getAsyncScheduler().runNow(getPlugin(), (task) -> tryConnect(selectedTransport, 1, startedAt));
+    }
+
+    /**
+     * Redis or the other servers may be starting at the same time as this one, so a failed attempt is tried again
+     * a little later. Logins are turned away once every attempt failed, unless local-only-fallback lets them in
+     * while attempts go on in the background.
+     */
+    private void tryConnect(String transportType, int attempt, long startedAt) {
+        try {
+            connect(transportType);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ready.completeExceptionally(e);
+            return;
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            disconnect();
+
+            long delay = Math.min(MAX_CONNECT_DELAY_SECONDS, 1L << Math.min(attempt - 1, 5));
+            Consumer<ScheduledTask> retryTask = (task) -> tryConnect(transportType, attempt + 1, startedAt);
+
+            if (attempt < connectAttempts || ready.isDone()) {
+                getLogger().warning("Could not connect to the network (attempt " + attempt + "), trying again in " + delay + " s: " + e);
+                Bukkit.getAsyncScheduler().runDelayed(getPlugin(), retryTask, delay, TimeUnit.SECONDS);
+                return;
             }
 
-            @Override
-            public void subscribed(String channel, long count) {
-                getLogger().info("Successfully subscribed to channel: " + channel + " (total: " + count + ")");
+            if (!localOnlyFallback) {
+                getLogger().log(Level.SEVERE, "Could not connect to the network after " + attempt + " attempts, players can't join until this is fixed", e);
+                ready.completeExceptionally(e);
+                return;
             }
 
-            @Override
-            public void unsubscribed(String channel, long count) {
-                getLogger().info("Unsubscribed from channel: " + channel + " (remaining: " + count + ")");
+            getLogger().log(Level.SEVERE, "Could not connect to the network after " + attempt + " attempts, chat stays on this server until it can", e);
+            ready.complete(null);
+            Bukkit.getAsyncScheduler().runDelayed(getPlugin(), retryTask, delay, TimeUnit.SECONDS);
+            return;
+        }
+
+        getLogger().info("Network ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms, "
+                + crossPlayerManager.getAllPlayers().size() + " players online in group " + group);
+        if (ready.complete(null)) return;
+
+        // Players joined while running local only, nobody else knows about them yet
+        Collection<? extends Player> players = Bukkit.getOnlinePlayers();
+        getLogger().info("Registering the " + players.size() + " players that joined while running local only");
+        for (Player player : players) {
+            addPlayer(player.getName());
+        }
+    }
+
+    /**
+     * Drops what a failed connect opened, so the next attempt starts over and nothing arrives twice.
+     */
+    private void disconnect() {
+        router.setTransport(null);
+        synchronized (this) {
+            spyChannels = Set.of();
+            spySubscriptions = List.of();
+            spySubscribed = false;
+            router.ignore(Set.of());
+        }
+
+        if (transport != null) transport.close(1, TimeUnit.SECONDS);
+        if (streamTransport != null) streamTransport.close();
+        transport = null;
+        streamTransport = null;
+    }
+
+    /**
+     * Opens the Redis connections and the transport, loads the network's state and starts the periodic tasks.
+     */
+    private void connect(String transportType) throws InterruptedException, ExecutionException, TimeoutException {
+        interactiveCommands = interactiveLane.commands(StringCodec.UTF8);
+        bulkCommands = bulkLane.commands(StringCodec.UTF8);
+        interactiveLane.registerMetrics(metrics);
+        bulkLane.registerMetrics(metrics);
+
+        replyStore.connect(interactiveCommands);
+        inventorySnapshots = new InventorySnapshotStore(bulkLane.commands(PACKET_CODEC), INVENTORY_SNAPSHOT_KEY + group + ":");
+        playerDirectory = new PlayerDirectory(interactiveCommands, bulkCommands, PLAYER_LIST_MAP_KEY + group, SERVER_LIST_MAP_KEY + group, serverId.toString(), serverName);
+
+        getLogger().info("Using the " + transportType + " transport");
+        transport = switch (transportType) {
+            case "mesh" -> createMeshTransport();
+            case "streams" -> createRedisTransport(true);
+            default -> createRedisTransport(false);
+        };
+
+        // Binary traffic is published on group scoped channels, so Redis only delivers our own group.
+        // The global channels are still carried by servers publishing JSON and fall silent once the group is on binary.
+        // In streams mode our own traffic arrives through the streams, pub/sub is only kept for servers still on JSON.
+        // A mesh group is binary only, so it never carries the global channels
+        List<String> channels = new ArrayList<>();
+        if (!(transport instanceof MeshTransport)) channels.addAll(PacketRouter.CHANNELS);
+        if (streamTransport == null) {
+            for (String channel : PacketRouter.CHANNELS) {
+                channels.add(scopedChannel(channel));
             }
-        });
+            channels.add(router.inboxChannel());
+        }
+
+        // Spy copies are only subscribed to while somebody here can see them, see updateSpySubscription.
+        // Streams deliver the scoped one whatever we subscribe to, so both are named for receive to drop
+        List<String> spies = channels.stream().filter(channel -> channel.equals(SPY_CHANNEL) || channel.equals(scopedChannel(SPY_CHANNEL))).toList();
+        channels.removeAll(spies);
+
+        transport.subscribe(channels);
+        transport.registerMetrics(metrics);
+        router.setTransport(transport);
+
+        // Spies may have joined already, while connecting or running local only
+        synchronized (this) {
+            spySubscriptions = spies;
+            spyChannels = Set.of(SPY_CHANNEL, scopedChannel(SPY_CHANNEL));
+            router.ignore(spyChannels);
+            updateSpySubscription();
+        }
+        metrics.gauge("skipped_echoes", "Own packets dropped on arrival because they were handled when published", router::skippedEchoes);
+
+        // Subscribed first, so changes made while the snapshot loads arrive as deltas on top of it
+        loadSnapshot();
+        connected = true;
+
+        // Nothing below may fail, tasks started by an attempt that failed would keep running
+        if (transport instanceof MeshTransport mesh) {
+            Consumer<ScheduledTask> peerTask = (task) -> playerDirectory.meshAddresses()
+                    .thenAccept(mesh::updatePeers)
+                    .exceptionally(throwable -> {
+                        getLogger().log(Level.WARNING, "Could not load mesh peers", throwable);
+                        return null;
+                    });
+            Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), peerTask, 1, 2, TimeUnit.SECONDS);
+        }
+
+        Consumer<ScheduledTask> heartbeatTask = (task) -> updateLastHeartbeat();
+        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), heartbeatTask, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+
+        // Join and quit packets keep the player list current, this only reads the sequence counter
+        // and falls back to a full reload when a delta went missing
+        Consumer<ScheduledTask> playerDirectoryTask = (task) -> {
+            try {
+                long remoteSequence = playerDirectory.currentSequence().join();
+                if (!crossPlayerManager.needsResync(remoteSequence, 2000)) return;
 
-        connection.subscribe(
-                MESSAGE_CHANNEL, INVENTORY_CHANNEL, BROADCAST_CHANNEL, DM_CHANNEL,
-                PLAY_SOUND_CHANNEL, TITLE_CHANNEL, ACTIONBAR_CHANNEL, SEND_MESSAGE_CHANNEL, SPY_CHANNEL,
-                PLAYER_CLEAR_CHANNEL, PLAYER_JOIN_CHANNEL, PLAYER_QUIT_CHANNEL, REPLY_CHANNEL, MUTE_CHANNEL, MENTION_CHANNEL
-        ).whenComplete((result, throwable) -> {
-            if (throwable != null) {
-                getLogger().log(Level.SEVERE, "Subscribe failed: " + throwable.getMessage(), throwable);
+                PlayerDirectory.Snapshot snapshot = playerDirectory.snapshot().join();
+                crossPlayerManager.applySnapshot(snapshot.sequence(), snapshot.players());
+            } catch (CompletionException e) {
+                getLogger().log(Level.WARNING, "Could not sync the network player list", e.getCause());
             }
-        });
+        };
+
+        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), playerDirectoryTask, 1, 2, TimeUnit.SECONDS);
 
-        Consumer<ScheduledTask> playerUpdateTask = (task) -> {
-            updateLastHeartbeat();
-            RedisCommands<String, String> c = redisConnection.sync();
-            Set<String> allPlayers = crossPlayerManager.getAllPlayers();
-            allPlayers.clear();
-            allPlayers.addAll(c.hgetall(PLAYER_LIST_MAP_KEY + group).keySet());
+        // Ignore lists and spy toggles are changed by AllayChat itself. Commands are picked up right after they run,
+        // see ConnectionListener, this catches anything else and drops entries of players that are gone.
+        // It schedules a task per online player, so it only runs every USER_INDEX_SWEEP_SECONDS
+        Consumer<ScheduledTask> userIndexTask = (task) -> {
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                refreshUserIndexes(player);
+            }
+            pruneUserIndexes();
         };
 
-        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), playerUpdateTask, 10, 10, TimeUnit.SECONDS);
-
-        if (getConfig().getBoolean("main-server")) {
-            Consumer<ScheduledTask> playerListValidateTask = (task) -> {
-                RedisCommands<String, String> c = redisConnection.sync();
-                for (Map.Entry<String, String> entry : c.hgetall(SERVER_LIST_MAP_KEY + group).entrySet()) {
-                    long lastHeartbeat = Long.parseLong(entry.getValue());
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lastHeartbeat > 3 * 60 * 1000) { // 3 minutes
-                        MultiServerModule.this.getLogger().info("Marking server " + entry.getKey() + " as offline due to no heartbeat received in the last 3 minutes.");
-                        c.hdel(SERVER_LIST_MAP_KEY + group, entry.getKey());
-
-                        // remove all players from the player list map that are associated with this server
-                        for (Map.Entry<String, String> playerEntry : c.hgetall(PLAYER_LIST_MAP_KEY + group).entrySet()) {
-                            if (playerEntry.getValue().equalsIgnoreCase(entry.getKey())) {
-                                c.hdel(PLAYER_LIST_MAP_KEY + group, playerEntry.getKey());
-                            }
-                        }
-                    }
-                }
-            };
-            Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), playerListValidateTask, 1, 30, TimeUnit.SECONDS);
+        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), userIndexTask, USER_INDEX_SWEEP_SECONDS, USER_INDEX_SWEEP_SECONDS, TimeUnit.SECONDS);
+
+        // Every server takes part, the script is atomic so overlapping runs are harmless
+        Consumer<ScheduledTask> deadServerCleanupTask = (task) -> playerDirectory.cleanupDeadServers(LEGACY_HEARTBEAT_TIMEOUT)
+                .thenAccept(removed -> removed.forEach((deadServer, sequence) -> {
+                    getLogger().info("Marking server " + deadServer + " as offline, its lease expired.");
+                    router.publish(PLAYER_CLEAR_CHANNEL, new ClearPacket(group, deadServer, sequence));
+                }))
+                .exceptionally(throwable -> {
+                    getLogger().log(Level.WARNING, "Could not clean up offline servers", throwable);
+                    return null;
+                });
+
+        long cleanupDelay = ThreadLocalRandom.current().nextLong(5, 30);
+        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), deadServerCleanupTask, cleanupDelay, 30, TimeUnit.SECONDS);
+
+        // Servers only announce their name in the directory, metrics of those no longer in it are dropped
+        Consumer<ScheduledTask> serverNamesTask = (task) -> playerDirectory.serverNames()
+                .thenAccept(names -> {
+                    serverNames = Map.copyOf(names);
+                    Set<String> live = new HashSet<>(names.values());
+                    live.add(UNKNOWN_SERVER_NAME);
+                    metrics.retainOrigins(live);
+                })
+                .exceptionally(throwable -> {
+                    getLogger().log(Level.WARNING, "Could not load the server names", throwable);
+                    return null;
+                });
+
+        Bukkit.getAsyncScheduler().runAtFixedRate(getPlugin(), serverNamesTask, 1, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Loads everything shared before the first player joins. The commands are sent back to back on the bulk lane,
+     * so the whole snapshot costs a single round trip.
+     */
+    private void loadSnapshot() throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<Boolean> lease = playerDirectory.heartbeat(leaseMillis);
+        CompletableFuture<PlayerDirectory.Snapshot> players = playerDirectory.snapshot();
+        CompletableFuture<String> muted = bulkCommands.get(MUTE_KEY + group).toCompletableFuture();
+        CompletableFuture<Map<String, String>> peers = transport instanceof MeshTransport
+                ? playerDirectory.meshAddresses()
+                : CompletableFuture.completedFuture(Map.of());
+
+        CompletableFuture.allOf(lease, players, muted, peers).get(readyTimeoutSeconds, TimeUnit.SECONDS);
+
+        PlayerDirectory.Snapshot snapshot = players.join();
+        crossPlayerManager.applySnapshot(snapshot.sequence(), snapshot.players());
+        crossChatManager.setMutedStatus("1".equals(muted.join()));
+        if (transport instanceof MeshTransport mesh) mesh.updatePeers(peers.join());
+    }
+
+    /**
+     * Holds a login until the network is ready, turning the player away if that takes too long or failed.
+     * Called on the login's own thread, so only that login waits.
+     */
+    public void awaitReady(AsyncPlayerPreLoginEvent event) {
+        try {
+            ready.get(readyTimeoutSeconds, TimeUnit.SECONDS);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {
+            // Logged by the startup task
         }
 
-        registerListeners(new ConnectionListener(this));
+        String message = getConfig().getString("startup.not-ready-message", "");
+        event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, ChatUtils.format(message));
+    }
+
+    private ConnectionLane createLane(String name, int connections, long timeoutMillis) {
+        return new ConnectionLane(
+                name,
+                redisClient,
+                getConfig().getInt("redis-lanes." + name + ".connections", connections),
+                Duration.ofMillis(Math.max(100, getConfig().getLong("redis-lanes." + name + ".timeout-ms", timeoutMillis)))
+        );
+    }
+
+    private Transport createRedisTransport(boolean streams) {
+        OutboundPublisher.Command command = streams
+                ? StreamTransport.command(group, getConfig().getLong("streams.max-length", 10000), getConfig().getLong("streams.inbox-max-length", 1000), playerDirectory::leaseKey)
+                : OutboundPublisher.Command.PUBLISH;
+
+        OutboundPublisher publisher = new OutboundPublisher(
+                publishLane.connect(PACKET_CODEC),
+                command,
+                (long) (getConfig().getDouble("publisher.batch-window-ms", 1) * 1000),
+                getConfig().getInt("publisher.batch-max-size", 64)
+        );
+
+        if (streams) {
+            Set<String> lowPriority = new HashSet<>(LOW_PRIORITY_CHANNELS);
+            LOW_PRIORITY_CHANNELS.forEach(channel -> lowPriority.add(scopedChannel(channel)));
+
+            // Reading is the receiving side, like the pub/sub connection, and blocks for up to a second at a time
+            streamTransport = new StreamTransport(
+                    pubSubLane.connect(PACKET_CODEC),
+                    streamCursors,
+                    group,
+                    serverId.toString(),
+                    getConfig().getInt("streams.read-batch-size", 256),
+                    getConfig().getLong("streams.skip-stale-after-ms", 5000),
+                    lowPriority::contains,
+                    this::receive,
+                    getLogger()
+            );
+            streamTransport.start();
+        }
+
+        return new RedisTransport(publisher, pubSubLane.connectPubSub(PACKET_CODEC), streamTransport, this::receive, getLogger());
+    }
+
+    // Peers find each other through the server list, directory, presence and inventories stay on Redis
+    private Transport createMeshTransport() {
+        InetSocketAddress bind = new InetSocketAddress(getConfig().getString("mesh.bind-address", "127.0.0.1"), getConfig().getInt("mesh.port", 0));
+        String secret = getConfig().getString("mesh.secret", "");
+        if (secret.isEmpty() && !bind.getAddress().isLoopbackAddress()) {
+            // Anyone who can reach the port could talk to the whole group
+            getLogger().severe("The mesh port is bound to " + bind.getAddress().getHostAddress() + " without a mesh.secret, binding it to 127.0.0.1 instead");
+            bind = new InetSocketAddress(InetAddress.getLoopbackAddress(), bind.getPort());
+        }
+
+        MeshTransport mesh;
+        try {
+            mesh = new MeshTransport(
+                    group,
+                    serverId.toString(),
+                    bind,
+                    secret,
+                    Math.max(1, getConfig().getLong("mesh.max-queued-mb", 8)) << 20,
+                    this::receive,
+                    getLogger()
+            );
+        } catch (IOException e) {
+            // Falling back to pub/sub would split the group, the other servers still only listen on the mesh
+            throw new UncheckedIOException("Could not open the mesh port on " + bind, e);
+        }
+
+        String host = getConfig().getString("mesh.advertise-address", "");
+        if (host.isEmpty()) {
+            host = mesh.getLocalAddress().getAddress().isAnyLocalAddress()
+                    ? Bukkit.getIp().isEmpty() ? "127.0.0.1" : Bukkit.getIp()
+                    : mesh.getLocalAddress().getHostString();
+        }
+
+        playerDirectory.setMeshAddress(host + ":" + mesh.getLocalAddress().getPort());
+        getLogger().info("Mesh listening on " + mesh.getLocalAddress() + ", announced as " + host + ":" + mesh.getLocalAddress().getPort());
+
+        return mesh;
+    }
+
+    private void writePrometheus(Path path) {
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+
+            // Readers must never see a half written file
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temporary, metrics.toPrometheus());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "Could not write metrics to " + path, e);
+        }
     }
 
     @Override
     public void onDisable() {
-        RedisCommands<String, String> connection = redisConnection.sync();
-        connection.hdel(SERVER_LIST_MAP_KEY + group, this.serverId.toString());
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            connection.hdel(PLAYER_LIST_MAP_KEY + group, player.getName());
-            connection.publish(PLAYER_QUIT_CHANNEL, GSON.toJson(new QuitPacket(player.getName(), group)));
+        if (metricsCommand != null) {
+            metricsCommand.unregister(Bukkit.getCommandMap());
+            Bukkit.getCommandMap().getKnownCommands().values().removeIf(command -> command == metricsCommand);
+        }
+
+        // One script removes the server and all of its players, one packet tells everyone else
+        if (connected) {
+            try {
+                long sequence = playerDirectory.deregister().get(5, TimeUnit.SECONDS);
+                router.publish(PLAYER_CLEAR_CHANNEL, new ClearPacket(group, serverId.toString(), sequence));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                getLogger().log(Level.WARNING, "Could not remove this server from the network player list", e);
+            }
+        }
+
+        if (transport != null) {
+            transport.close(5, TimeUnit.SECONDS);
+        }
+
+        if (dispatcher != null) {
+            dispatcher.close(2, TimeUnit.SECONDS);
+        }
+
+        if (streamTransport != null) {
+            try {
+                bulkCommands.del(streamTransport.getInboxStream()).get(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                getLogger().log(Level.WARNING, "Could not remove this server's inbox stream", e);
+            }
         }
 
         if (redisClient != null) {
@@ -181,65 +664,68 @@ public final class MultiServerModule extends Module {
         }
     }
 
-    private void handleMessage(String channel, String message) {
+    // Called by the transport on its I/O thread
+    private void receive(String channel, byte[] message) {
+        if (router.accept(channel, message)) dispatcher.dispatch(channel, message);
+    }
+
+    private void handlePacket(String channel, Object decoded) {
         final AllayChat plugin = this.getPlugin();
-        switch (channel) {
-            case MESSAGE_CHANNEL -> {
-                MessagePacket packet = GSON.fromJson(message, MessagePacket.class);
+        switch (decoded) {
+            case MessagePacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                Bukkit.getServer().filterAudience(audience -> {
-                    if (audience instanceof Player player) {
-                        ChatUser chatUser = plugin.getUserManager().getUser(player.getUniqueId());
-                        if (chatUser == null) return true;
+                sendChat(packet.playerName(), GsonComponentSerializer.gson().deserialize(packet.serializedComponent()));
+            }
+
+            case ChatTemplatePacket packet -> {
+                if (!packet.group().equals(group)) return;
 
-                        return !chatUser.getIgnoredPlayers().contains(packet.playerName());
-                    }
-                    return true;
-                }).sendMessage(GsonComponentSerializer.gson().deserialize(packet.serializedComponent()));
+                sendChat(packet.playerName(), renderChat(packet));
             }
 
-            case INVENTORY_CHANNEL -> {
-                InventoryPacket packet = GSON.fromJson(message, InventoryPacket.class);
+            case InventoryPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                ItemStack[] items = ItemSerializer.itemStackArrayFromBase64(packet.serializedItems(), plugin);
-                Component title = GsonComponentSerializer.gson().deserialize(packet.serializedTitle());
+                ItemStack[] items = ItemSerializer.itemStackArrayFromBase64(packet.serializedItems(), getPlugin());
+                byte[] compact = ItemSerializer.itemStackArrayToBytes(items, inventoryCompression);
+                getCrossChatManager().getInventoryCache().put(packet.id(), new InventorySnapshot(packet.serializedTitle(), packet.size(), compact));
+            }
+
+            // Fetched right away, so opening it never waits for Redis. Without players here nobody can open it before it expires
+            case InventoryReferencePacket packet -> {
+                if (!packet.group().equals(group)) return;
 
-                Inventory inventory = new AllayInventory(items, title, packet.size()).getInventory();
-                getCrossChatManager().getInventoryCache().put(packet.id(), inventory);
+                getCrossChatManager().getInventoryReferences().put(packet.id(), packet.snapshotHash());
+                if (!Bukkit.getOnlinePlayers().isEmpty()) getCrossChatManager().prefetchInventory(packet.id());
             }
 
-            case PLAY_SOUND_CHANNEL -> {
-                SoundPacket packet = GSON.fromJson(message, SoundPacket.class);
+            case SoundPacket packet -> {
                 Player player = Bukkit.getPlayerExact(packet.playerName());
                 if (player == null) return;
 
                 Sound sound = Sound.sound(Key.key(packet.soundKey()), Sound.Source.MASTER, 1, 1);
-                player.playSound(sound);
+                runAt(player, target -> target.playSound(sound));
             }
 
-            case TITLE_CHANNEL -> {
-                TitlePacket packet = GSON.fromJson(message, TitlePacket.class);
+            case TitlePacket packet -> {
                 Player player = Bukkit.getPlayerExact(packet.playerName());
                 if (player == null) return;
 
                 Component title = GsonComponentSerializer.gson().deserialize(packet.serializedComponentTitle());
                 Component subtitle = GsonComponentSerializer.gson().deserialize(packet.serializedComponentSubtitle());
-                player.showTitle(Title.title(title, subtitle));
+                runAt(player, target -> target.showTitle(Title.title(title, subtitle)));
             }
 
-            case ACTIONBAR_CHANNEL -> {
-                ActionbarPacket packet = GSON.fromJson(message, ActionbarPacket.class);
+            case ActionbarPacket packet -> {
                 Player player = Bukkit.getPlayerExact(packet.playerName());
                 if (player == null) return;
 
                 Component actionbar = GsonComponentSerializer.gson().deserialize(packet.serializedComponent());
-                player.sendActionBar(actionbar);
+                runAt(player, target -> target.sendActionBar(actionbar));
             }
 
-            case SEND_MESSAGE_CHANNEL -> {
-                SendMessagePacket packet = GSON.fromJson(message, SendMessagePacket.class);
+            case SendMessagePacket packet -> {
                 Player player = Bukkit.getPlayerExact(packet.playerName());
                 if (player == null) return;
 
@@ -247,8 +733,15 @@ public final class MultiServerModule extends Module {
                 player.sendMessage(component);
             }
 
-            case BROADCAST_CHANNEL -> {
-                BroadcastPacket packet = GSON.fromJson(message, BroadcastPacket.class);
+            case TemplateMessagePacket packet -> {
+                Player player = Bukkit.getPlayerExact(packet.playerName());
+                if (player == null) return;
+
+                Component component = renderTemplate(packet.template(), packet.arguments());
+                if (component != null) player.sendMessage(component);
+            }
+
+            case BroadcastPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
                 Component component = GsonComponentSerializer.gson().deserialize(packet.serializedComponent());
@@ -259,126 +752,406 @@ public final class MultiServerModule extends Module {
                 }
             }
 
-            case PLAYER_JOIN_CHANNEL -> {
-                JoinPacket packet = GSON.fromJson(message, JoinPacket.class);
+            case JoinPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                crossPlayerManager.getAllPlayers().add(packet.playerName());
+                crossPlayerManager.applyJoin(packet.playerName(), packet.serverId(), packet.sequence());
             }
 
-            case PLAYER_QUIT_CHANNEL -> {
-                QuitPacket packet = GSON.fromJson(message, QuitPacket.class);
+            case QuitPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                crossPlayerManager.getAllPlayers().remove(packet.playerName());
+                crossPlayerManager.applyQuit(packet.playerName(), packet.sequence());
             }
 
-            case REPLY_CHANNEL -> {
-                SetLastReplyPacket packet = GSON.fromJson(message, SetLastReplyPacket.class);
+            case ClearPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                crossChatManager.getLastMessageCache().put(packet.playerOne(), packet.playerTwo());
+                crossPlayerManager.applyClear(packet.serverId(), packet.sequence());
             }
 
-            case MUTE_CHANNEL -> {
-                MutePacket packet = GSON.fromJson(message, MutePacket.class);
-                crossChatManager.setMutedStatus(packet.muted());
+            case SetLastReplyPacket packet -> {
+                if (!packet.group().equals(group)) return;
+
+                // Everyone else's reply pairs are their own server's business
+                if (Bukkit.getPlayerExact(packet.playerOne()) != null) replyStore.set(packet.playerOne(), packet.playerTwo());
             }
 
-            case MENTION_CHANNEL -> {
-                MentionPacket packet = GSON.fromJson(message, MentionPacket.class);
+            case MutePacket packet -> crossChatManager.setMutedStatus(packet.muted());
+
+            case MentionPacket packet -> {
                 if (!packet.group().equals(group)) return;
 
                 crossChatManager.handleMentionInternally(packet);
             }
 
-            case SPY_CHANNEL -> {
-                SpyMessagePacket packet = GSON.fromJson(message, SpyMessagePacket.class);
+            case SpyMessagePacket packet -> {
                 if (!packet.group().equals(group)) return;
 
-                Component component = GsonComponentSerializer.gson().deserialize(packet.serializedComponent());
-                plugin.getUserManager().getAllUsers().stream().filter(ChatUser::isSpyEnabled).forEach(spyUser -> {
-                    Player player = Bukkit.getPlayer(spyUser.getUniqueId());
-                    if (player == null) return;
+                sendToSpies(GsonComponentSerializer.gson().deserialize(packet.serializedComponent()));
+            }
 
-                    player.sendMessage(component);
-                });
+            case TemplateSpyPacket packet -> {
+                if (!packet.group().equals(group)) return;
+
+                Component component = renderTemplate(packet.template(), packet.arguments());
+                if (component != null) sendToSpies(component);
             }
 
-            case DM_CHANNEL -> {
-                PrivateMessagePacket packet = GSON.fromJson(message, PrivateMessagePacket.class);
+            case PrivateMessagePacket packet -> {
                 if (!packet.group().equals(group)) return;
 
                 crossChatManager.handleDMInternally(packet);
             }
+
+            case DirectMessagePacket packet -> {
+                if (!packet.group().equals(group)) return;
+
+                crossChatManager.handleDirectMessage(packet);
+            }
+
+            case DeliveredMessagePacket packet -> {
+                if (!packet.group().equals(group)) return;
+
+                crossChatManager.handleDeliveredMessage(packet);
+            }
+
+            default -> getLogger().warning("Unhandled packet " + decoded.getClass().getSimpleName() + " on channel " + channel);
+        }
+    }
+
+    /**
+     * Runs an effect on the thread that owns the player, which on Folia is their region, so effects for players
+     * in different regions run in parallel. Dropped if the player leaves first. Chat messages don't need this,
+     * Paper sends them from any thread.
+     */
+    public void runAt(Player player, Consumer<Player> effect) {
+        player.getScheduler().run(getPlugin(), task -> effect.accept(player), null);
+    }
+
+    // Stable across restarts of the same server, unlike the id
+    private static String defaultServerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+
+        return host + ":" + Bukkit.getPort();
+    }
+
+    /**
+     * Checks a chat or private message against the sender's rate limit, telling them if it is refused.
+     *
+     * @return whether the message may be sent
+     */
+    public boolean checkRateLimit(Player player) {
+        if (player.hasPermission(RATE_LIMIT_BYPASS_PERMISSION) || senderRateLimiter.tryAcquire(player.getUniqueId())) return true;
+
+        String message = getConfig().getString("rate-limit.message", "");
+        if (!message.isEmpty()) ChatUtils.sendMessage(player, ChatUtils.format(message));
+        return false;
+    }
+
+    /**
+     * Copies a player's spy toggle and ignore list into the indexes on the next tick of the player's own
+     * thread, the one AllayChat changes them on, so the copy never races a command editing them.
+     */
+    public void refreshUserIndexes(Player player) {
+        player.getScheduler().runDelayed(getPlugin(), (task) -> {
+            if (!player.isOnline()) return;
+
+            ChatUser chatUser = getPlugin().getUserManager().getUser(player.getUniqueId());
+            if (chatUser == null) return;
+
+            ignoreIndex.update(player.getUniqueId(), chatUser.getIgnoredPlayers());
+            if (spyIndex.update(player.getUniqueId(), chatUser.isSpyEnabled())) {
+                updateSpySubscription();
+            }
+        }, null, 1);
+    }
+
+    public void forgetUserIndexes(UUID player) {
+        ignoreIndex.remove(player);
+        if (spyIndex.remove(player)) {
+            updateSpySubscription();
+        }
+    }
+
+    // A refresh that raced a quit can leave an entry behind, which would keep the spy channel subscribed for nobody
+    private void pruneUserIndexes() {
+        for (UUID spy : spyIndex.getSpies()) {
+            if (!isOnline(spy)) forgetUserIndexes(spy);
+        }
+
+        for (UUID viewer : ignoreIndex.getViewers()) {
+            if (!isOnline(viewer)) ignoreIndex.remove(viewer);
+        }
+    }
+
+    private static boolean isOnline(UUID uuid) {
+        Player player = Bukkit.getPlayer(uuid);
+        return player != null && player.isOnline();
+    }
+
+    /**
+     * Follows the spy channel only while a spy is online here, so a server without any skips
+     * every private message copy on the network before it is even decoded.
+     */
+    public synchronized void updateSpySubscription() {
+        boolean wanted = !spyIndex.isEmpty();
+        if (wanted == spySubscribed || spyChannels.isEmpty()) return;
+
+        spySubscribed = wanted;
+        // Streams deliver spy copies either way, the router drops them while nobody here wants them
+        router.ignore(wanted ? Set.of() : spyChannels);
+        if (spySubscriptions.isEmpty()) return;
+
+        if (wanted) {
+            transport.subscribe(spySubscriptions);
+        } else {
+            transport.unsubscribe(spySubscriptions);
         }
     }
 
     public void updateLastHeartbeat() {
-        redisConnection.async().hset(SERVER_LIST_MAP_KEY + group, serverId.toString(), String.valueOf(System.currentTimeMillis()));
+        playerDirectory.heartbeat(leaseMillis).thenAccept(lapsed -> {
+            if (!lapsed) return;
+
+            // Redis was unreachable for longer than the lease, so another server may have cleaned up our players
+            Collection<? extends Player> players = Bukkit.getOnlinePlayers();
+            getLogger().warning("The server lease ran out, registering " + players.size() + " players again");
+            for (Player player : players) {
+                addPlayer(player.getName());
+            }
+        }).exceptionally(throwable -> {
+            getLogger().log(Level.WARNING, "Could not renew the server lease", throwable);
+            return null;
+        });
     }
 
     public void addPlayer(String playerName) {
-        RedisAsyncCommands<String, String> connection = redisConnection.async();
-        connection.hset(PLAYER_LIST_MAP_KEY + group, playerName, serverId.toString());
-        connection.publish(PLAYER_JOIN_CHANNEL, GSON.toJson(new JoinPacket(playerName, group)));
+        crossPlayerManager.setRoute(playerName, serverId.toString());
+        if (!connected) return; // Registered once connected, see tryConnect
+
+        playerDirectory.register(playerName).thenAccept(sequence -> {
+            if (sequence > 0) {
+                router.publish(PLAYER_JOIN_CHANNEL, new JoinPacket(playerName, group, serverId.toString(), sequence));
+                return;
+            }
+
+            // 0 means they kept moving between servers while the join ran, take the list from Redis instead
+            getLogger().warning("Could not register " + playerName + ", they kept moving between servers");
+            crossPlayerManager.requestResync();
+        });
     }
 
     public void removePlayer(String playerName) {
-        RedisAsyncCommands<String, String> connection = redisConnection.async();
-        connection.hdel(PLAYER_LIST_MAP_KEY + group, playerName);
-        connection.publish(PLAYER_QUIT_CHANNEL, GSON.toJson(new QuitPacket(playerName, group)));
+        if (!connected) {
+            crossPlayerManager.removeLocal(playerName, serverId.toString());
+            return;
+        }
+
+        playerDirectory.unregister(playerName).thenAccept(sequence -> {
+            // 0 means the player is registered to another server by now, so there is nothing to announce
+            if (sequence > 0) router.publish(PLAYER_QUIT_CHANNEL, new QuitPacket(playerName, group, sequence));
+        });
     }
 
     public void publishMessage(String playerName, Component component) {
         MessagePacket packet = new MessagePacket(group, playerName, GsonComponentSerializer.gson().serialize(component));
-        redisConnection.async().publish(MESSAGE_CHANNEL, GSON.toJson(packet));
+        router.publish(MESSAGE_CHANNEL, packet);
     }
 
     public void publishLastReply(String playerOne, String playerTwo) {
         SetLastReplyPacket packet = new SetLastReplyPacket(group, playerOne, playerTwo);
-        redisConnection.async().publish(REPLY_CHANNEL, GSON.toJson(packet));
+        router.publish(REPLY_CHANNEL, packet);
     }
 
-    public void publishInventory(UUID id, Component title, ItemStack[] items, int size) {
-        InventoryPacket packet = new InventoryPacket(
-                group,
-                id,
-                ItemSerializer.itemStackArrayToBase64(items, getPlugin()),
-                GsonComponentSerializer.gson().serialize(title),
-                size
-        );
-        redisConnection.async().publish(INVENTORY_CHANNEL, GSON.toJson(packet));
+    public void publishInventory(UUID id, InventorySnapshot snapshot) {
+        // Servers predating snapshots need the whole inventory in the packet, and running local only there is no store
+        if (packetCodec.getFormat() == PacketFormat.JSON || !connected) {
+            String serializedItems = ItemSerializer.slotsToBase64(ItemSerializer.decodeSlots(snapshot.items(), maxInventoryBytes));
+            router.publish(INVENTORY_CHANNEL, new InventoryPacket(group, id, serializedItems, snapshot.serializedTitle(), snapshot.size()));
+            return;
+        }
+
+        inventorySnapshots.store(snapshot)
+                .thenAccept(hash -> router.publish(INVENTORY_CHANNEL, new InventoryReferencePacket(group, id, hash)))
+                .exceptionally(throwable -> {
+                    getLogger().log(Level.WARNING, "Could not store inventory snapshot " + id, throwable);
+                    return null;
+                });
+    }
+
+    public Inventory buildInventory(InventorySnapshot snapshot) {
+        ItemStack[] items = ItemSerializer.itemStackArrayFromBytes(snapshot.items(), maxInventoryBytes);
+        Component title = GsonComponentSerializer.gson().deserialize(snapshot.serializedTitle());
+
+        return new AllayInventory(items, title, snapshot.size()).getInventory();
     }
 
     public void publishSendMessage(String playerName, Component component) {
         SendMessagePacket packet = new SendMessagePacket(playerName, GsonComponentSerializer.gson().serialize(component));
-        redisConnection.async().publish(SEND_MESSAGE_CHANNEL, GSON.toJson(packet));
+        router.publishTo(SEND_MESSAGE_CHANNEL, packet);
+    }
+
+    /**
+     * Sends a config format to a player anywhere on the network, as a template if the group allows it.
+     */
+    public void publishTemplate(String playerName, MessageTemplate template, String... arguments) {
+        if (!messageTemplates) {
+            publishSendMessage(playerName, template.render(getPlugin(), List.of(arguments)));
+            return;
+        }
+
+        router.publishTo(SEND_MESSAGE_CHANNEL, new TemplateMessagePacket(playerName, template.getId(), List.of(arguments)));
+    }
+
+    /**
+     * Sends a chat line as what the player typed, for every server to render from its chat-template.
+     */
+    public ChatTemplatePacket publishChatTemplate(Player player, String message) {
+        ChatTemplatePacket packet = new ChatTemplatePacket(group, player.getName(), MiniMessage.miniMessage().serialize(player.displayName()), message);
+        router.publish(MESSAGE_CHANNEL, packet);
+        return packet;
+    }
+
+    public Component renderChat(ChatTemplatePacket packet) {
+        return ChatUtils.format(chatTemplate.isEmpty() ? DEFAULT_CHAT_TEMPLATE : chatTemplate,
+                Placeholder.unparsed("player", packet.playerName()),
+                Placeholder.component("display_name", MiniMessage.miniMessage().deserialize(packet.displayName())),
+                Placeholder.component("message", crossChatManager.highlightMentions(packet.message()))
+        );
+    }
+
+    // To everyone here except the players ignoring the sender
+    private void sendChat(String sender, Component component) {
+        Set<UUID> ignoring = ignoreIndex.getIgnoring(sender);
+        if (ignoring.isEmpty()) {
+            Bukkit.getServer().sendMessage(component);
+        } else {
+            Bukkit.getServer().filterAudience(audience ->
+                    !(audience instanceof Player player && ignoring.contains(player.getUniqueId()))
+            ).sendMessage(component);
+        }
     }
 
     public void publishBroadcast(Component component, String permission) {
         BroadcastPacket packet = new BroadcastPacket(group, GsonComponentSerializer.gson().serialize(component), permission);
-        redisConnection.async().publish(BROADCAST_CHANNEL, GSON.toJson(packet));
+        router.publish(BROADCAST_CHANNEL, packet);
     }
 
     public void publishMuteStatus(boolean muted) {
+        // Kept in Redis as well, for servers starting after this
+        if (connected) interactiveCommands.set(MUTE_KEY + group, muted ? "1" : "0");
+
         MutePacket packet = new MutePacket(muted);
-        redisConnection.async().publish(MUTE_CHANNEL, GSON.toJson(packet));
+        router.publish(MUTE_CHANNEL, packet);
     }
 
     public void publishMention(String mentioner, String mentioned) {
         MentionPacket packet = new MentionPacket(mentioned, mentioner, group);
-        redisConnection.async().publish(MENTION_CHANNEL, GSON.toJson(packet));
+        router.publishTo(MENTION_CHANNEL, packet);
     }
 
     public void publishSpy(Component component) {
         SpyMessagePacket packet = new SpyMessagePacket(GsonComponentSerializer.gson().serialize(component), group);
-        redisConnection.async().publish(SPY_CHANNEL, GSON.toJson(packet));
+        router.publish(SPY_CHANNEL, packet);
+    }
+
+    public void publishSpy(MessageTemplate template, String... arguments) {
+        if (!messageTemplates) {
+            publishSpy(template.render(getPlugin(), List.of(arguments)));
+            return;
+        }
+
+        router.publish(SPY_CHANNEL, new TemplateSpyPacket(group, template.getId(), List.of(arguments)));
     }
 
     public void publishDM(String from, String to, String message) {
+        // Servers sharing their formats settle the whole exchange with two packets, see DirectMessagePacket
+        if (messageTemplates) {
+            router.publishTo(DM_CHANNEL, new DirectMessagePacket(group, from, to, message));
+            return;
+        }
+
         PrivateMessagePacket packet = new PrivateMessagePacket(from, to, message, group);
-        redisConnection.async().publish(DM_CHANNEL, GSON.toJson(packet));
+        router.publishTo(DM_CHANNEL, packet);
+    }
+
+    /**
+     * Tells the sender's server and every spy that the recipient got a private message.
+     */
+    public void publishDelivered(String from, String to, String message) {
+        router.publish(DM_CHANNEL, new DeliveredMessagePacket(group, from, to, message));
+    }
+
+    /**
+     * Renders a config format for the spies on this server, only if there are any.
+     */
+    public void sendToSpies(MessageTemplate template, String... arguments) {
+        if (spyIndex.isEmpty()) return;
+
+        sendToSpies(template.render(getPlugin(), List.of(arguments)));
+    }
+
+    private void sendToSpies(Component component) {
+        for (UUID spy : spyIndex.getSpies()) {
+            Player player = Bukkit.getPlayer(spy);
+            if (player != null) player.sendMessage(component);
+        }
+    }
+
+    @Nullable
+    private Component renderTemplate(int id, List<String> arguments) {
+        MessageTemplate template = MessageTemplate.byId(id);
+        if (template == null) {
+            getLogger().warning("Received unknown message template " + id + ", is every server on the same version?");
+            return null;
+        }
+
+        try {
+            return template.render(getPlugin(), arguments);
+        } catch (IllegalArgumentException e) {
+            getLogger().warning("Could not render message template " + template + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public String scopedChannel(String channel) {
+        return ChannelNames.scoped(group, channel);
+    }
+
+    private final class RouterHost implements PacketRouter.Host {
+
+        @Nullable
+        @Override
+        public String routeOf(String playerName) {
+            return crossPlayerManager.getServer(playerName);
+        }
+
+        @Override
+        public void removeRoute(String playerName, String serverId) {
+            crossPlayerManager.removeRoute(playerName, serverId);
+        }
+
+        @Override
+        public boolean isHere(String playerName) {
+            return Bukkit.getPlayerExact(playerName) != null;
+        }
+
+        @Override
+        public void handle(String channel, Object packet) {
+            handlePacket(channel, packet);
+        }
+
+        @Override
+        public String serverName(String serverId) {
+            return serverNames.getOrDefault(serverId, UNKNOWN_SERVER_NAME);
+        }
+
     }
 
 }
@@ -12,6 +12,7 @@ import net.kyori.adventure.sound.Sound;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextReplacementConfig;
 import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import net.kyori.adventure.title.Title;
 import net.voxelarc.allaychat.api.AllayChat;
@@ -20,12 +21,18 @@ import net.voxelarc.allaychat.api.config.YamlConfig;
 import net.voxelarc.allaychat.api.user.ChatUser;
 import net.voxelarc.allaychat.api.util.ChatUtils;
 import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.inventory.InventorySnapshot;
+import net.voxelarc.allaychat.multiserver.inventory.InventorySnapshotStore;
+import net.voxelarc.allaychat.multiserver.packet.DeliveredMessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.DirectMessagePacket;
 import net.voxelarc.allaychat.multiserver.packet.MentionPacket;
 import net.voxelarc.allaychat.multiserver.packet.PrivateMessagePacket;
+import net.voxelarc.allaychat.multiserver.util.ItemSerializer;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -36,16 +43,17 @@ public class CrossChatManager implements ChatManager {
 
     private final AllayChat plugin;
 
+    // Shared inventories as compact bytes, bounded by their size rather than their count
     @Getter
-    private final Cache<String, String> lastMessageCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(5, TimeUnit.MINUTES).build();
+    private volatile Cache<UUID, InventorySnapshot> inventoryCache = buildInventoryCache(16L << 20);
 
+    // Shared inventory id -> snapshot hash, for previews that are still loading or were evicted from the cache
     @Getter
-    private final Cache<UUID, Inventory> inventoryCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(3, TimeUnit.MINUTES).build();
+    private final Cache<UUID, String> inventoryReferences = CacheBuilder.newBuilder()
+            .expireAfterWrite(InventorySnapshotStore.TTL_SECONDS, TimeUnit.SECONDS).build();
 
     @Setter
-    private boolean mutedStatus = false;
+    private volatile boolean mutedStatus = false;
 
     @Override
     public void onEnable() {
@@ -59,6 +67,16 @@ public class CrossChatManager implements ChatManager {
 
     @Override
     public Component formatMessage(Player player, Component message) {
+        // Every server shows chat as it comes back from the network, so a refused message is shown nowhere
+        if (!module.checkRateLimit(player)) return message;
+
+        // Only what the player typed goes out, every server renders the line and highlights mentions itself
+        if (module.isChatTemplates()) {
+            String text = PlainTextComponentSerializer.plainText().serialize(message);
+            handleMentions(player, text, message); // for the notifications
+            return module.renderChat(module.publishChatTemplate(player, text));
+        }
+
         Component component = module.getLocalChatManager().formatMessage(player, message);
         module.publishMessage(player.getName(), component);
         return component;
@@ -89,12 +107,15 @@ public class CrossChatManager implements ChatManager {
             return false;
         }
 
-        if (!plugin.getPlayerManager().getAllPlayers().contains(to)) {
+        // Typed names are matched ignoring case, everything below uses the name as the player spells it
+        String recipient = module.getCrossPlayerManager().findPlayer(to);
+        if (recipient == null) {
             ChatUtils.sendMessage(from, ChatUtils.format(
                     plugin.getPrivateMessageConfig().getString("messages.not-found")
             ));
             return false;
         }
+        to = recipient;
 
         if (from.getName().equalsIgnoreCase(to)) {
             ChatUtils.sendMessage(from, ChatUtils.format(
@@ -123,6 +144,8 @@ public class CrossChatManager implements ChatManager {
             return false;
         }
 
+        if (!module.checkRateLimit(from)) return false;
+
         module.publishDM(from.getName(), to, message);
 
         return true;
@@ -141,12 +164,44 @@ public class CrossChatManager implements ChatManager {
 
     @Override
     public String getLastMessagedPlayer(String player) {
-        return lastMessageCache.getIfPresent(player);
+        return module.getReplyStore().get(player);
+    }
+
+    public void setInventoryCacheLimit(long maxBytes) {
+        this.inventoryCache = buildInventoryCache(maxBytes);
+    }
+
+    private static Cache<UUID, InventorySnapshot> buildInventoryCache(long maxBytes) {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(3, TimeUnit.MINUTES)
+                .maximumWeight(maxBytes)
+                .weigher((UUID id, InventorySnapshot snapshot) -> snapshot.weight())
+                .build();
     }
 
     @Override
     public Inventory getInventory(UUID uuid) {
-        return this.inventoryCache.getIfPresent(uuid);
+        InventorySnapshot snapshot = this.inventoryCache.getIfPresent(uuid);
+        if (snapshot == null) {
+            // Called on the tick thread, so never wait for Redis. Evicted or still loading, it shows up on the next click
+            prefetchInventory(uuid);
+            return null;
+        }
+
+        // Built per view, holding a live Bukkit inventory for every share would cost far more memory
+        return module.buildInventory(snapshot);
+    }
+
+    /**
+     * Loads a shared inventory known only by reference into the cache in the background.
+     */
+    public void prefetchInventory(UUID uuid) {
+        String hash = this.inventoryReferences.getIfPresent(uuid);
+        if (hash == null) return;
+
+        module.getInventorySnapshots().load(hash).thenAccept(snapshot -> {
+            if (snapshot != null) this.inventoryCache.asMap().putIfAbsent(uuid, snapshot);
+        });
     }
 
     @Override
@@ -164,7 +219,16 @@ public class CrossChatManager implements ChatManager {
         };
 
         Component title = ChatUtils.format(titleString, Placeholder.unparsed("player", playerName));
-        module.publishInventory(uuid, title, inventory.getContents(), size);
+
+        // Serialized once, the same bytes are kept locally and uploaded
+        InventorySnapshot snapshot = new InventorySnapshot(
+                GsonComponentSerializer.gson().serialize(title),
+                size,
+                ItemSerializer.itemStackArrayToBytes(inventory.getContents(), module.isInventoryCompression())
+        );
+
+        this.inventoryCache.put(uuid, snapshot);
+        module.publishInventory(uuid, snapshot);
     }
 
     @Override
@@ -179,21 +243,35 @@ public class CrossChatManager implements ChatManager {
 
     @Override
     public Component handleMentions(Player player, String messageContent, Component messageComponent) {
-        YamlConfig replacementConfig = plugin.getReplacementConfig();
-        if (replacementConfig.getBoolean("mention.enabled")) {
-            for (String playerName : plugin.getPlayerManager().getAllPlayers()) {
-                if (messageContent.contains(playerName)) {
-                    module.publishMention(player.getName(), playerName);
-                    messageComponent = messageComponent.replaceText(TextReplacementConfig.builder()
-                            .matchLiteral(playerName)
-                            .replacement(ChatUtils.format(replacementConfig.getString("mention.text"), Placeholder.unparsed("player", playerName)))
-                            .build()
-                    );
-                }
-            }
+        if (!plugin.getReplacementConfig().getBoolean("mention.enabled")) return messageComponent;
+
+        List<String> mentioned = module.getCrossPlayerManager().getMentionMatcher().findAll(messageContent);
+        for (String playerName : mentioned) {
+            module.publishMention(player.getName(), playerName);
         }
 
-        return messageComponent;
+        return highlightMentions(mentioned, messageComponent);
+    }
+
+    /**
+     * Shows the network players named in a chat line the way mentions look, without notifying them.
+     */
+    public Component highlightMentions(String message) {
+        Component component = Component.text(message);
+        if (!plugin.getReplacementConfig().getBoolean("mention.enabled")) return component;
+
+        return highlightMentions(module.getCrossPlayerManager().getMentionMatcher().findAll(message), component);
+    }
+
+    private Component highlightMentions(List<String> mentioned, Component messageComponent) {
+        if (mentioned.isEmpty()) return messageComponent;
+
+        String mentionText = plugin.getReplacementConfig().getString("mention.text");
+        return messageComponent.replaceText(TextReplacementConfig.builder()
+                .match(MentionMatcher.toPattern(mentioned))
+                .replacement((result, builder) -> ChatUtils.format(mentionText, Placeholder.unparsed("player", result.group())))
+                .build()
+        );
     }
 
     public void handleMentionInternally(MentionPacket packet) {
@@ -204,31 +282,40 @@ public class CrossChatManager implements ChatManager {
         ChatUser user = plugin.getUserManager().getUser(targetPlayer.getUniqueId());
         if (user == null) return;
         boolean allow = user.isChatEnabled() && user.isMentionsEnabled() && !user.getIgnoredPlayers().contains(packet.mentionerPlayer());
+        if (!allow) return;
 
+        // Everything is rendered here, only the effects themselves run on the player's own thread
         String soundName = replacementConfig.getString("mention.sound");
-        if (soundName != null && !soundName.isEmpty() && allow) {
-            Sound sound = Sound.sound(Key.key(soundName), Sound.Source.MASTER, 1.0f, 1.0f);
-            targetPlayer.playSound(sound);
-        }
+        Sound sound = soundName != null && !soundName.isEmpty()
+                ? Sound.sound(Key.key(soundName), Sound.Source.MASTER, 1.0f, 1.0f)
+                : null;
 
-        if (replacementConfig.getBoolean("mention.title.enabled") && allow) {
+        Title title = null;
+        if (replacementConfig.getBoolean("mention.title.enabled")) {
             String titleText = replacementConfig.getString("mention.title.title");
             String subtitleText = replacementConfig.getString("mention.title.subtitle");
-            Title title = Title.title(
+            title = Title.title(
                     ChatUtils.format(titleText, Placeholder.unparsed("player", packet.mentionerPlayer())),
                     ChatUtils.format(subtitleText, Placeholder.unparsed("player", packet.mentionerPlayer()))
             );
-            targetPlayer.showTitle(title);
         }
 
         String actionBar = replacementConfig.getString("mention.actionbar");
-        if (actionBar != null && !actionBar.isEmpty() && allow) {
-            Component actionBarComponent = ChatUtils.format(actionBar, Placeholder.unparsed("player", packet.mentionerPlayer()));
-            targetPlayer.sendActionBar(actionBarComponent);
+        Component actionBarComponent = actionBar != null && !actionBar.isEmpty()
+                ? ChatUtils.format(actionBar, Placeholder.unparsed("player", packet.mentionerPlayer()))
+                : null;
+
+        if (sound != null || title != null || actionBarComponent != null) {
+            Title mentionTitle = title;
+            module.runAt(targetPlayer, player -> {
+                if (sound != null) player.playSound(sound);
+                if (mentionTitle != null) player.showTitle(mentionTitle);
+                if (actionBarComponent != null) player.sendActionBar(actionBarComponent);
+            });
         }
 
         String mentionMessage = replacementConfig.getString("mention.message");
-        if (mentionMessage != null && !mentionMessage.isEmpty() && allow) {
+        if (mentionMessage != null && !mentionMessage.isEmpty()) {
             Component mentionMessageComponent = ChatUtils.format(mentionMessage, Placeholder.unparsed("player", packet.mentionerPlayer()));
             ChatUtils.sendMessage(targetPlayer, mentionMessageComponent);
         }
@@ -238,51 +325,70 @@ public class CrossChatManager implements ChatManager {
         Player toPlayer = Bukkit.getPlayerExact(packet.recipient());
         if (toPlayer == null) return;
 
-        ChatUser user = plugin.getUserManager().getUser(toPlayer.getUniqueId());
-        if (user == null) return;
+        if (!deliverDM(toPlayer, packet.sender(), packet.message())) return;
+        module.getReplyStore().set(packet.recipient(), packet.sender());
 
-        if (!user.isMsgEnabled()) {
-            module.getCrossPlayerManager().sendMessage(packet.sender(), ChatUtils.format(
-                    plugin.getPrivateMessageConfig().getString("messages.disabled-other"),
-                    Placeholder.unparsed("player", packet.recipient())
-            ));
-            return;
-        }
+        // Rendered by the sender's and the spies' servers from their own copy of the format
+        module.getCrossPlayerManager().sendTemplate(packet.sender(), MessageTemplate.PM_FORMAT_SELF, packet.recipient(), packet.message());
 
-        if (user.getIgnoredPlayers().contains(packet.sender())) {
-            module.getCrossPlayerManager().sendMessage(packet.sender(), ChatUtils.format(
-                    plugin.getMessagesConfig().getString("messages.ignoring-you"),
-                    Placeholder.unparsed("player", packet.recipient())
-            ));
-            return;
-        }
+        // Servers predating the reply store keep a copy of every pair, the sender's server stores theirs from this too
+        module.publishLastReply(packet.sender(), packet.recipient());
+        module.publishLastReply(packet.recipient(), packet.sender());
 
-        Component spyComponent = ChatUtils.format(
-                plugin.getPrivateMessageConfig().getString("messages.spy"),
-                Placeholder.unparsed("from", packet.sender()),
-                Placeholder.unparsed("to", packet.recipient()),
-                Placeholder.unparsed("message", packet.message())
-        );
+        module.publishSpy(MessageTemplate.PM_SPY, packet.sender(), packet.recipient(), packet.message());
+    }
 
-        Component msgTarget = ChatUtils.format(
-                plugin.getPrivateMessageConfig().getString("messages.format-target"),
-                Placeholder.unparsed("player", packet.sender()),
-                Placeholder.unparsed("message", packet.message())
-        );
+    /**
+     * Handles a private message on its recipient's server. Nothing else happens until the recipient got it,
+     * a refused message only tells the sender why.
+     */
+    public void handleDirectMessage(DirectMessagePacket packet) {
+        // Every server sees it when it couldn't be routed, only the recipient's answers
+        Player toPlayer = Bukkit.getPlayerExact(packet.recipient());
+        if (toPlayer == null) return;
 
-        Component msgSender = ChatUtils.format(
-                plugin.getPrivateMessageConfig().getString("messages.format-self"),
-                Placeholder.unparsed("player", packet.recipient()),
-                Placeholder.unparsed("message", packet.message())
-        );
+        if (!deliverDM(toPlayer, packet.sender(), packet.message())) return;
+        module.getReplyStore().set(packet.recipient(), packet.sender());
 
-        ChatUtils.sendMessage(toPlayer, msgTarget);
-        module.getCrossPlayerManager().sendMessage(packet.sender(), msgSender);
+        module.publishDelivered(packet.sender(), packet.recipient(), packet.message());
+    }
 
-        module.publishLastReply(packet.sender(), packet.recipient());
-        module.publishLastReply(packet.recipient(), packet.sender());
+    /**
+     * Handles a private message its recipient got, on every server of the group.
+     */
+    public void handleDeliveredMessage(DeliveredMessagePacket packet) {
+        // Reply pairs are only stored by the servers of the two players
+        Player fromPlayer = Bukkit.getPlayerExact(packet.sender());
+        if (fromPlayer != null) {
+            module.getReplyStore().set(packet.sender(), packet.recipient());
+            ChatUtils.sendMessage(fromPlayer, MessageTemplate.PM_FORMAT_SELF.render(plugin, List.of(packet.recipient(), packet.message())));
+        }
+
+        module.sendToSpies(MessageTemplate.PM_SPY, packet.sender(), packet.recipient(), packet.message());
+    }
+
+    /**
+     * Shows a private message to its recipient, or tells the sender why it can't be.
+     *
+     * @return whether the recipient got it
+     */
+    private boolean deliverDM(Player toPlayer, String sender, String message) {
+        ChatUser user = plugin.getUserManager().getUser(toPlayer.getUniqueId());
+        if (user == null) return false;
+
+        if (!user.isMsgEnabled()) {
+            module.getCrossPlayerManager().sendTemplate(sender, MessageTemplate.PM_DISABLED_OTHER, toPlayer.getName());
+            return false;
+        }
 
-        module.publishSpy(spyComponent);
+        if (user.getIgnoredPlayers().contains(sender)) {
+            module.getCrossPlayerManager().sendTemplate(sender, MessageTemplate.IGNORING_YOU, toPlayer.getName());
+            return false;
+        }
+
+        Component msgTarget = MessageTemplate.PM_FORMAT_TARGET.render(plugin, List.of(sender, message));
+        ChatUtils.sendMessage(toPlayer, msgTarget);
+        return true;
     }
 
 }
@@ -0,0 +1,229 @@
+package net.voxelarc.allaychat.multiserver.chat;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Aho-Corasick automaton over the network player names, finding every name contained in a message
+ * in a single pass. Names are inserted and removed as players join and quit; the failure links are
+ * rebuilt lazily on the next search after a change. The trie is the only place the names are kept.
+ */
+public class MentionMatcher {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Node root = new Node();
+    private int size = 0;
+    private int deadNames = 0;
+    private boolean linksDirty = false;
+
+    public void add(String name) {
+        if (name.isEmpty()) return;
+
+        lock.writeLock().lock();
+        try {
+            if (!insert(name)) return;
+
+            size++;
+            linksDirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String name) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < name.length() && node != null; i++) {
+                node = node.child(name.charAt(i));
+            }
+            if (node == null || node.output == null) return;
+
+            node.output = null;
+            size--;
+
+            // Removed names leave their nodes behind, start over once they make up half of the trie
+            if (++deadNames > size / 2 + 16) {
+                rebuild(names());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces every name at once, e.g. after the network player list was reloaded.
+     */
+    public void setAll(Collection<String> playerNames) {
+        lock.writeLock().lock();
+        try {
+            rebuild(playerNames);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return every distinct name contained in the text, in order of first appearance
+     */
+    public List<String> findAll(String text) {
+        lock.readLock().lock();
+        try {
+            if (linksDirty) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    if (linksDirty) link();
+                    lock.readLock().lock();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            List<String> found = null;
+            Node state = root;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+
+                Node next;
+                while ((next = state.child(c)) == null && state != root) {
+                    state = state.fail;
+                }
+                state = next == null ? root : next;
+
+                for (Node match = state.output != null ? state : state.outputLink; match != null; match = match.outputLink) {
+                    String name = match.output;
+                    if (name == null) continue; // removed since the links were built
+
+                    if (found == null) found = new ArrayList<>(2);
+                    if (!found.contains(name)) found.add(name);
+                }
+            }
+
+            return found == null ? Collections.emptyList() : found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds a pattern matching any of the names, preferring the longest name at each position,
+     * so all mentions in a message can be replaced in one pass.
+     */
+    public static Pattern toPattern(Collection<String> names) {
+        StringJoiner joiner = new StringJoiner("|");
+        names.stream()
+                .sorted(Comparator.comparingInt(String::length).reversed())
+                .forEach(name -> joiner.add(Pattern.quote(name)));
+        return Pattern.compile(joiner.toString());
+    }
+
+    private void rebuild(Collection<String> playerNames) {
+        root = new Node();
+        size = 0;
+        deadNames = 0;
+        for (String name : playerNames) {
+            if (!name.isEmpty() && insert(name)) size++;
+        }
+        link();
+    }
+
+    /**
+     * @return false if the name was in the trie already
+     */
+    private boolean insert(String name) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.childOrCreate(name.charAt(i));
+        }
+        if (node.output != null) return false;
+
+        node.output = name;
+        return true;
+    }
+
+    // Every name still in the trie, depth first
+    private List<String> names() {
+        List<String> found = new ArrayList<>(size);
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node.output != null) found.add(node.output);
+            for (int i = 0; i < node.size; i++) {
+                stack.push(node.children[i]);
+            }
+        }
+        return found;
+    }
+
+    // Breadth first, so every node's failure target is linked before the node itself
+    private void link() {
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        root.outputLink = null;
+        for (int i = 0; i < root.size; i++) {
+            Node child = root.children[i];
+            child.fail = root;
+            child.outputLink = null;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (int i = 0; i < node.size; i++) {
+                char c = node.labels[i];
+                Node child = node.children[i];
+
+                Node fail = node.fail;
+                Node target;
+                while ((target = fail.child(c)) == null && fail != root) {
+                    fail = fail.fail;
+                }
+                child.fail = target == null || target == child ? root : target;
+                child.outputLink = child.fail.output != null ? child.fail : child.fail.outputLink;
+                queue.add(child);
+            }
+        }
+
+        linksDirty = false;
+    }
+
+    private static final class Node {
+
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private int size = 0;
+
+        private String output;
+        private Node fail;
+        private Node outputLink;
+
+        private Node child(char c) {
+            for (int i = 0; i < size; i++) {
+                if (labels[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        private Node childOrCreate(char c) {
+            Node existing = child(c);
+            if (existing != null) return existing;
+
+            if (size == labels.length) {
+                int capacity = Math.max(2, size * 2);
+                labels = Arrays.copyOf(labels, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+
+            Node created = new Node();
+            labels[size] = c;
+            children[size++] = created;
+            return created;
+        }
+
+    }
+
+}
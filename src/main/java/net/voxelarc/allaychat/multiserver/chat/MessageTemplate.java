@@ -0,0 +1,66 @@
+package net.voxelarc.allaychat.multiserver.chat;
+
+import lombok.Getter;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import net.voxelarc.allaychat.api.AllayChat;
+import net.voxelarc.allaychat.api.config.YamlConfig;
+import net.voxelarc.allaychat.api.util.ChatUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Config driven formats every server has a copy of, sent as an id plus the raw placeholder values
+ * and rendered by the receiving server. Anything else is sent as a full serialized component.
+ * Ids are part of the wire format and must never be reused.
+ */
+public enum MessageTemplate {
+
+    PM_FORMAT_SELF(1, AllayChat::getPrivateMessageConfig, "messages.format-self", "player", "message"),
+    PM_FORMAT_TARGET(2, AllayChat::getPrivateMessageConfig, "messages.format-target", "player", "message"),
+    PM_SPY(3, AllayChat::getPrivateMessageConfig, "messages.spy", "from", "to", "message"),
+    PM_DISABLED_OTHER(4, AllayChat::getPrivateMessageConfig, "messages.disabled-other", "player"),
+    IGNORING_YOU(5, AllayChat::getMessagesConfig, "messages.ignoring-you", "player");
+
+    private static final MessageTemplate[] BY_ID = new MessageTemplate[8];
+
+    static {
+        for (MessageTemplate template : values()) {
+            BY_ID[template.id] = template;
+        }
+    }
+
+    @Getter private final int id;
+    private final Function<AllayChat, YamlConfig> config;
+    private final String path;
+    private final String[] placeholders;
+
+    MessageTemplate(int id, Function<AllayChat, YamlConfig> config, String path, String... placeholders) {
+        this.id = id;
+        this.config = config;
+        this.path = path;
+        this.placeholders = placeholders;
+    }
+
+    public Component render(AllayChat plugin, List<String> arguments) {
+        if (arguments.size() != placeholders.length) {
+            throw new IllegalArgumentException(name() + " takes " + placeholders.length + " arguments, got " + arguments.size());
+        }
+
+        TagResolver[] resolvers = new TagResolver[placeholders.length];
+        for (int i = 0; i < placeholders.length; i++) {
+            resolvers[i] = Placeholder.unparsed(placeholders[i], arguments.get(i));
+        }
+
+        return ChatUtils.format(config.apply(plugin).getString(path), resolvers);
+    }
+
+    @Nullable
+    public static MessageTemplate byId(int id) {
+        return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+
+}
@@ -0,0 +1,87 @@
+package net.voxelarc.allaychat.multiserver.chat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Who every player last messaged, for {@code /reply}. Kept in Redis for the whole group, with a near-cache holding
+ * only the players on this server. Each server writes the pairs of its own players, so nothing is broadcast and
+ * no other server has anything to invalidate, and a player switching servers finds theirs waiting in Redis.
+ * Until {@link #connect} is called only the pairs made on this server are known.
+ */
+public class ReplyStore {
+
+    public static final long TTL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+
+    // Cached for players who have nobody to reply to, so they don't go to Redis every time
+    private static final String NOBODY = "";
+
+    private final String keyPrefix;
+    @Nullable private volatile RedisAsyncCommands<String, String> commands;
+
+    private final Cache<String, String> nearCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS).build();
+
+    public ReplyStore(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Keeps the pairs in Redis from now on.
+     */
+    public void connect(RedisAsyncCommands<String, String> commands) {
+        this.commands = commands;
+    }
+
+    /**
+     * Records the last player messaged by, or messaging, a player on this server.
+     */
+    public void set(String player, String partner) {
+        nearCache.put(player, partner);
+
+        RedisAsyncCommands<String, String> commands = this.commands;
+        if (commands != null) commands.set(keyPrefix + player, partner, SetArgs.Builder.ex(TTL_SECONDS));
+    }
+
+    /**
+     * Reads ahead for a player who is logging in, so their pair is here before they can reply.
+     */
+    public void load(String player) {
+        RedisAsyncCommands<String, String> commands = this.commands;
+        if (commands == null) return;
+
+        commands.get(keyPrefix + player).thenAccept(partner -> {
+            // A message sent or received meanwhile is newer than what Redis had
+            nearCache.asMap().putIfAbsent(player, partner == null ? NOBODY : partner);
+        });
+    }
+
+    /**
+     * Only for players on this server, who are in the near-cache unless the read ahead is still on its way.
+     * Never waits for Redis, a miss starts loading the pair and finds nobody to reply to until it arrives.
+     */
+    @Nullable
+    public String get(String player) {
+        String partner = nearCache.getIfPresent(player);
+        if (partner == null) {
+            load(player);
+            return null;
+        }
+
+        return partner.equals(NOBODY) ? null : partner;
+    }
+
+    public void forget(String player) {
+        nearCache.invalidate(player);
+    }
+
+    public long size() {
+        return nearCache.size();
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.voxelarc.allaychat.multiserver.chat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per player for everything they send across the network. A player is only ever on one
+ * server, so limiting them there caps what they can put on every other server's receive path too.
+ */
+public class SenderRateLimiter {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private final Cache<UUID, Bucket> buckets = CacheBuilder.newBuilder()
+            .expireAfterAccess(5, TimeUnit.MINUTES).build();
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * @param perSecond sustained messages per second, 0 or less disables the limit
+     * @param burst     messages that may be sent at once after being quiet for a while
+     */
+    public SenderRateLimiter(double perSecond, int burst) {
+        this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * @return whether the player may send another message right now
+     */
+    public boolean tryAcquire(UUID player) {
+        if (tokensPerNano <= 0) return true;
+
+        Bucket bucket;
+        try {
+            bucket = buckets.get(player, () -> new Bucket(burst, System.nanoTime()));
+        } catch (ExecutionException e) {
+            return true;
+        }
+
+        if (bucket.tryTake(tokensPerNano, burst)) return true;
+
+        limited.increment();
+        return false;
+    }
+
+    public long limited() {
+        return limited.sum();
+    }
+
+    private static final class Bucket {
+
+        private double tokens;
+        private long refilledAt;
+
+        private Bucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+
+        private synchronized boolean tryTake(double tokensPerNano, double burst) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+
+            if (tokens < 1) return false;
+
+            tokens--;
+            return true;
+        }
+
+    }
+
+}
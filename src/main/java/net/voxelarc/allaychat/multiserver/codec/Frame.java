@@ -0,0 +1,14 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * A decoded packet together with what its frame header said about where and when it was sent.
+ *
+ * @param origin the publishing server, null for legacy JSON
+ * @param sentAt epoch millis at which the packet was encoded, 0 when unknown
+ */
+public record Frame(Object packet, @Nullable UUID origin, long sentAt) {
+}
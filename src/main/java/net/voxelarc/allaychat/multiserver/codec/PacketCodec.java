@@ -0,0 +1,378 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+import net.voxelarc.allaychat.multiserver.packet.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes packets for the wire and decodes whatever arrives, regardless of the sender's format.
+ * <p>
+ * Binary frames are laid out as:
+ * <pre>
+ * magic (1) | version (1) | type (1) | group (string) | origin (uuid) | sent at (long) | body length (varint) | body
+ * </pre>
+ * This is the only layout that has been released. Any change to it, or to a body, needs a new {@link #VERSION}.
+ * The magic byte is a UTF-8 continuation byte, so it can never start a legacy JSON payload.
+ * The group sits in the header so that foreign traffic can be rejected by {@link #belongsTo(byte[], String)}
+ * without decoding the body.
+ */
+public final class PacketCodec {
+
+    public static final int MAGIC = 0xAC;
+    public static final int VERSION = 1;
+
+    private static final Registration<?>[] BY_ID = new Registration<?>[64];
+    private static final Map<Class<?>, Registration<?>> BY_CLASS = new HashMap<>();
+
+    private static final byte[] JSON_GROUP_FIELD = "\"group\":".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        register(1, MessagePacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.playerName());
+            w.writeString(p.serializedComponent());
+        }, (r, v) -> new MessagePacket(r.readString(), r.readString(), r.readString()));
+
+        register(2, InventoryPacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeUuid(p.id());
+            w.writeString(p.serializedItems());
+            w.writeString(p.serializedTitle());
+            w.writeVarInt(p.size());
+        }, (r, v) -> new InventoryPacket(r.readString(), r.readUuid(), r.readString(), r.readString(), r.readVarInt()));
+
+        register(3, BroadcastPacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.serializedComponent());
+            w.writeString(p.permission());
+        }, (r, v) -> new BroadcastPacket(r.readString(), r.readString(), r.readString()));
+
+        register(4, PrivateMessagePacket.class, (w, p) -> {
+            w.writeString(p.sender());
+            w.writeString(p.recipient());
+            w.writeString(p.message());
+            w.writeString(p.group());
+        }, (r, v) -> new PrivateMessagePacket(r.readString(), r.readString(), r.readString(), r.readString()));
+
+        register(5, SoundPacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.soundKey());
+        }, (r, v) -> new SoundPacket(r.readString(), r.readString()));
+
+        register(6, TitlePacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.serializedComponentTitle());
+            w.writeString(p.serializedComponentSubtitle());
+        }, (r, v) -> new TitlePacket(r.readString(), r.readString(), r.readString()));
+
+        register(7, ActionbarPacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.serializedComponent());
+        }, (r, v) -> new ActionbarPacket(r.readString(), r.readString()));
+
+        register(8, SendMessagePacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.serializedComponent());
+        }, (r, v) -> new SendMessagePacket(r.readString(), r.readString()));
+
+        register(9, SpyMessagePacket.class, (w, p) -> {
+            w.writeString(p.serializedComponent());
+            w.writeString(p.group());
+        }, (r, v) -> new SpyMessagePacket(r.readString(), r.readString()));
+
+        register(10, JoinPacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.group());
+            w.writeString(p.serverId());
+            w.writeLong(p.sequence());
+        }, (r, v) -> new JoinPacket(r.readString(), r.readString(), r.readString(), r.readLong()));
+
+        register(11, QuitPacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeString(p.group());
+            w.writeLong(p.sequence());
+        }, (r, v) -> new QuitPacket(r.readString(), r.readString(), r.readLong()));
+
+        register(12, SetLastReplyPacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.playerOne());
+            w.writeString(p.playerTwo());
+        }, (r, v) -> new SetLastReplyPacket(r.readString(), r.readString(), r.readString()));
+
+        register(13, MutePacket.class, (w, p) -> w.writeBoolean(p.muted()), (r, v) -> new MutePacket(r.readBoolean()));
+
+        register(14, MentionPacket.class, (w, p) -> {
+            w.writeString(p.mentionedPlayer());
+            w.writeString(p.mentionerPlayer());
+            w.writeString(p.group());
+        }, (r, v) -> new MentionPacket(r.readString(), r.readString(), r.readString()));
+
+        register(15, ClearPacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.serverId());
+            w.writeLong(p.sequence());
+        }, (r, v) -> new ClearPacket(r.readString(), r.readString(), r.readLong()));
+
+        register(16, InventoryReferencePacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeUuid(p.id());
+            w.writeString(p.snapshotHash());
+        }, (r, v) -> new InventoryReferencePacket(r.readString(), r.readUuid(), r.readString()));
+
+        register(17, TemplateMessagePacket.class, (w, p) -> {
+            w.writeString(p.playerName());
+            w.writeVarInt(p.template());
+            writeStrings(w, p.arguments());
+        }, (r, v) -> new TemplateMessagePacket(r.readString(), r.readVarInt(), readStrings(r)));
+
+        register(18, TemplateSpyPacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeVarInt(p.template());
+            writeStrings(w, p.arguments());
+        }, (r, v) -> new TemplateSpyPacket(r.readString(), r.readVarInt(), readStrings(r)));
+
+        register(19, DirectMessagePacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.sender());
+            w.writeString(p.recipient());
+            w.writeString(p.message());
+        }, (r, v) -> new DirectMessagePacket(r.readString(), r.readString(), r.readString(), r.readString()));
+
+        register(20, ChatTemplatePacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.playerName());
+            w.writeString(p.displayName());
+            w.writeString(p.message());
+        }, (r, v) -> new ChatTemplatePacket(r.readString(), r.readString(), r.readString(), r.readString()));
+
+        register(21, DeliveredMessagePacket.class, (w, p) -> {
+            w.writeString(p.group());
+            w.writeString(p.sender());
+            w.writeString(p.recipient());
+            w.writeString(p.message());
+        }, (r, v) -> new DeliveredMessagePacket(r.readString(), r.readString(), r.readString(), r.readString()));
+    }
+
+    @Getter private final PacketFormat format;
+    private final Gson gson;
+    private final UUID origin;
+
+    /**
+     * @param origin this server's id, written to the header of every binary frame
+     */
+    public PacketCodec(PacketFormat format, Gson gson, UUID origin) {
+        this.format = format;
+        this.gson = gson;
+        this.origin = origin;
+    }
+
+    /**
+     * Encodes a packet in the configured {@link PacketFormat}.
+     *
+     * @param group the group the packet is published in, written to the binary header
+     */
+    public byte[] encode(String group, Object packet) {
+        if (format == PacketFormat.JSON) {
+            return gson.toJson(packet).getBytes(StandardCharsets.UTF_8);
+        }
+
+        return encodeBinary(group, packet);
+    }
+
+    @SuppressWarnings("unchecked")
+    public byte[] encodeBinary(String group, Object packet) {
+        Registration<Object> registration = (Registration<Object>) BY_CLASS.get(packet.getClass());
+        if (registration == null) {
+            throw new PacketCodecException("Unregistered packet type: " + packet.getClass().getName());
+        }
+
+        PacketWriter body = new PacketWriter();
+        registration.writer().write(body, packet);
+
+        PacketWriter frame = new PacketWriter(body.size() + 8);
+        frame.writeByte(MAGIC);
+        frame.writeByte(VERSION);
+        frame.writeByte(registration.id());
+        frame.writeString(group);
+        frame.writeUuid(origin);
+        frame.writeLong(System.currentTimeMillis());
+        frame.writeVarInt(body.size());
+        body.writeTo(frame);
+        return frame.toByteArray();
+    }
+
+    /**
+     * Decodes a payload in either format.
+     *
+     * @param legacyType the packet class to use if the payload turns out to be legacy JSON,
+     *                   {@code null} if the channel never carries JSON
+     */
+    public Frame decode(byte[] data, Class<?> legacyType) {
+        if (isBinary(data)) {
+            return decodeBinary(data);
+        }
+
+        if (legacyType == null) {
+            throw new PacketCodecException("Received a non-binary payload on a binary-only channel");
+        }
+
+        return new Frame(gson.fromJson(new String(data, StandardCharsets.UTF_8), legacyType), null, 0);
+    }
+
+    /**
+     * Tells the packet class from the header alone, without decoding the frame.
+     *
+     * @param legacyType returned for legacy JSON payloads, see {@link #decode(byte[], Class)}
+     * @return {@code null} if the type id is unknown
+     */
+    @Nullable
+    public static Class<?> peekType(byte[] data, @Nullable Class<?> legacyType) {
+        if (!isBinary(data)) return legacyType;
+        if (data.length < 3) return null;
+
+        int id = data[2] & 0xFF;
+        Registration<?> registration = id < BY_ID.length ? BY_ID[id] : null;
+        return registration == null ? null : registration.type();
+    }
+
+    public static boolean isBinary(byte[] data) {
+        return data.length > 0 && (data[0] & 0xFF) == MAGIC;
+    }
+
+    /**
+     * Cheaply checks whether a payload is a frame this codec encoded itself, from its header alone.
+     * Legacy JSON payloads carry no origin and are never ours.
+     */
+    public boolean isOwn(byte[] data) {
+        if (!isBinary(data) || data.length < 4) return false;
+
+        try {
+            PacketReader reader = new PacketReader(data);
+            reader.skip(3); // magic, version, type
+
+            int groupLength = reader.readVarInt() - 1;
+            if (groupLength > 0) reader.skip(groupLength);
+
+            return reader.readLong() == origin.getMostSignificantBits() && reader.readLong() == origin.getLeastSignificantBits();
+        } catch (PacketCodecException e) {
+            return false; // Truncated, left for decode to report
+        }
+    }
+
+    /**
+     * Cheaply checks whether a payload was published for the given group, without decoding it.
+     * Binary frames are checked against their header. Legacy JSON payloads are scanned for the
+     * group field exactly as Gson writes it; payloads without a group field are always accepted.
+     */
+    public boolean belongsTo(byte[] data, String group) {
+        if (isBinary(data)) {
+            PacketReader reader = new PacketReader(data);
+            reader.skip(3); // magic, version, type
+
+            int length = reader.readVarInt() - 1;
+            byte[] expected = group.getBytes(StandardCharsets.UTF_8);
+            if (length != expected.length || reader.remaining() < length) return false;
+
+            int offset = reader.position();
+            return Arrays.equals(data, offset, offset + length, expected, 0, length);
+        }
+
+        if (indexOf(data, JSON_GROUP_FIELD, 0) < 0) return true;
+
+        byte[] needle = ("\"group\":" + gson.toJson(group)).getBytes(StandardCharsets.UTF_8);
+        return indexOf(data, needle, 0) >= 0;
+    }
+
+    private static int indexOf(byte[] data, byte[] needle, int from) {
+        outer:
+        for (int i = from, last = data.length - needle.length; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static Frame decodeBinary(byte[] data) {
+        PacketReader reader = new PacketReader(data);
+        reader.readByte(); // magic
+
+        int version = reader.readByte();
+        if (version > VERSION) {
+            throw new PacketCodecException("Packet schema version " + version + " is newer than supported version " + VERSION);
+        }
+
+        int id = reader.readByte();
+        Registration<?> registration = id < BY_ID.length ? BY_ID[id] : null;
+        if (registration == null) {
+            throw new PacketCodecException("Unknown packet type id: " + id);
+        }
+
+        int groupLength = reader.readVarInt() - 1; // group, only needed by belongsTo
+        if (groupLength > 0) reader.skip(groupLength);
+
+        UUID origin = reader.readUuid();
+        long sentAt = reader.readLong();
+
+        int length = reader.readVarInt();
+        if (length != reader.remaining()) {
+            throw new PacketCodecException("Packet length mismatch: header says " + length + ", frame has " + reader.remaining());
+        }
+
+        PacketReader body = new PacketReader(data, reader.position(), length);
+        return new Frame(registration.reader().read(body, version), origin, sentAt);
+    }
+
+    private static void writeStrings(PacketWriter writer, List<String> strings) {
+        writer.writeVarInt(strings.size());
+        for (String string : strings) {
+            writer.writeString(string);
+        }
+    }
+
+    private static List<String> readStrings(PacketReader reader) {
+        int count = reader.readVarInt();
+        if (count < 0 || count > reader.remaining()) {
+            throw new PacketCodecException("Invalid string count " + count);
+        }
+
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(reader.readString());
+        }
+        return strings;
+    }
+
+    private static <T> void register(int id, Class<T> type, Writer<T> writer, Reader<T> reader) {
+        Registration<T> registration = new Registration<>(id, type, writer, reader);
+        BY_ID[id] = registration;
+        BY_CLASS.put(type, registration);
+    }
+
+    private record Registration<T>(int id, Class<T> type, Writer<T> writer, Reader<T> reader) {
+    }
+
+    @FunctionalInterface
+    private interface Writer<T> {
+        void write(PacketWriter writer, T packet);
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        /**
+         * @param version the schema version from the frame header, never newer than {@link #VERSION}
+         */
+        T read(PacketReader reader, int version);
+    }
+
+}
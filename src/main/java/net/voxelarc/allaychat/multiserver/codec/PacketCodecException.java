@@ -0,0 +1,13 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+public class PacketCodecException extends RuntimeException {
+
+    public PacketCodecException(String message) {
+        super(message);
+    }
+
+    public PacketCodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
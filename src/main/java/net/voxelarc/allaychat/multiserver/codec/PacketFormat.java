@@ -0,0 +1,19 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+/**
+ * Wire format used when publishing packets. Receivers always understand both.
+ */
+public enum PacketFormat {
+
+    /**
+     * Legacy Gson JSON, readable by servers that predate the binary codec.
+     * Use this on every server until the whole group has been upgraded.
+     */
+    JSON,
+
+    /**
+     * Compact, versioned, length-prefixed binary frames.
+     */
+    BINARY
+
+}
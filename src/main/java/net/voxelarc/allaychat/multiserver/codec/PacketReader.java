@@ -0,0 +1,113 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Bounds-checked reader over a binary packet frame.
+ */
+public final class PacketReader {
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    public PacketReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public PacketReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new PacketCodecException("Invalid frame bounds");
+        }
+
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public static PacketReader of(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new PacketReader(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return new PacketReader(copy);
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    public int readByte() {
+        require(1);
+        return data[position++] & 0xFF;
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new PacketCodecException("VarInt is too long");
+    }
+
+    public long readLong() {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    public UUID readUuid() {
+        return new UUID(readLong(), readLong());
+    }
+
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) return null;
+
+        require(length);
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public byte[] readBytes() {
+        int length = readVarInt() - 1;
+        if (length < 0) return null;
+
+        require(length);
+        byte[] value = new byte[length];
+        System.arraycopy(data, position, value, 0, length);
+        position += length;
+        return value;
+    }
+
+    public void skip(int length) {
+        require(length);
+        position += length;
+    }
+
+    private void require(int length) {
+        if (length < 0 || limit - position < length) {
+            throw new PacketCodecException("Truncated packet: needed " + length + " bytes, " + (limit - position) + " left");
+        }
+    }
+
+}
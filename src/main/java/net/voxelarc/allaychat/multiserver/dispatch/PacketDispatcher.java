@@ -0,0 +1,224 @@
+package net.voxelarc.allaychat.multiserver.dispatch;
+
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.packet.TargetedPacket;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes received packets off the transport's thread. Every broadcast channel gets a bounded queue of its own,
+ * drained by one virtual thread at a time: packets of a channel are handled in the order they arrived, different
+ * channels in parallel, and a slow handler only holds up its own channel. An inbox carries every kind of packet
+ * targeted at a player here, so it gets a queue per packet type instead, and a flood of titles being shed can't
+ * hold up private messages.
+ * <p>
+ * What happens under load depends on the {@link PacketPriority} of each packet.
+ */
+public class PacketDispatcher {
+
+    // Handled in one go before the lane lets others have the carrier threads
+    private static final int DRAIN_BATCH = 64;
+
+    private final int capacity;
+    private final long cosmeticMaxAgeNanos;
+    private final BiFunction<String, byte[], Class<?>> classifier;
+    private final Decoder decoder;
+    private final BiConsumer<String, Frame> handler;
+    private final NetworkMetrics metrics;
+    private final Logger logger;
+
+    private final Map<LaneKey, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("AllayChat-Dispatch-", 0).factory()
+    );
+
+    /**
+     * @param capacity             packets a channel may have waiting before normal ones are dropped
+     * @param cosmeticMaxAgeMillis cosmetic packets that waited longer than this are dropped
+     * @param classifier           tells the type of a packet without decoding it, null if it can't, called on the transport's thread
+     * @param decoder              called on a virtual thread
+     * @param handler              called on a virtual thread, in arrival order per channel
+     */
+    public PacketDispatcher(int capacity, long cosmeticMaxAgeMillis, BiFunction<String, byte[], Class<?>> classifier,
+                            Decoder decoder, BiConsumer<String, Frame> handler, NetworkMetrics metrics, Logger logger) {
+        this.capacity = Math.max(2, capacity);
+        this.cosmeticMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(cosmeticMaxAgeMillis);
+        this.classifier = classifier;
+        this.decoder = decoder;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * Queues a packet, never blocks. Safe to call from the transport's I/O thread.
+     */
+    public void dispatch(String channel, byte[] payload) {
+        Class<?> type = classifier.apply(channel, payload);
+        LaneKey key = new LaneKey(channel, ChannelNames.isInbox(channel) ? type : null);
+
+        lanes.computeIfAbsent(key, this::createLane).offer(payload, PacketPriority.of(type));
+    }
+
+    private Lane createLane(LaneKey key) {
+        Lane lane = new Lane(key);
+        metrics.dispatchQueue(key.channel(), key.type(), capacity, lane.size::get, lane.dropped::sum, lane.coalesced::sum);
+        return lane;
+    }
+
+    public void close(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Decoder {
+
+        /**
+         * @return {@code null} to skip the packet, for foreign or malformed ones
+         */
+        @Nullable
+        Frame decode(String channel, byte[] payload);
+
+    }
+
+    private record Entry(byte[] payload, PacketPriority priority, long queuedAt) {
+    }
+
+    // The type is only set for inboxes
+    private record LaneKey(String channel, @Nullable Class<?> type) {
+
+        @Override
+        public String toString() {
+            return type == null ? channel : channel + " (" + type.getSimpleName() + ")";
+        }
+
+    }
+
+    private final class Lane {
+
+        private final LaneKey key;
+        private final String channel;
+        private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+
+        private Lane(LaneKey key) {
+            this.key = key;
+            this.channel = key.channel();
+        }
+
+        private void offer(byte[] payload, PacketPriority priority) {
+            int limit = switch (priority) {
+                case CRITICAL -> Integer.MAX_VALUE;
+                case NORMAL -> capacity;
+                case COSMETIC -> capacity / 2; // Shed first, so chat still fits in the rest
+            };
+
+            if (size.incrementAndGet() > limit) {
+                size.decrementAndGet();
+                drop();
+                return;
+            }
+
+            queue.add(new Entry(payload, priority, System.nanoTime()));
+            schedule();
+        }
+
+        private void drop() {
+            // Logged at 1, 2, 4, 8... drops, an overflow must not flood the log as well
+            dropped.increment();
+            long count = dropped.sum();
+            if (Long.bitCount(count) == 1) {
+                logger.warning("Dispatch queue of " + key + " is full, " + count + " packets dropped so far");
+            }
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, whatever is left is not going to be handled
+                scheduled.set(false);
+            }
+        }
+
+        private void drain() {
+            List<Frame> frames = new ArrayList<>();
+            Map<List<Object>, Integer> latestCosmetic = new HashMap<>();
+            long now = System.nanoTime();
+
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Entry entry = queue.poll();
+                if (entry == null) break;
+                size.decrementAndGet();
+
+                boolean cosmetic = entry.priority() == PacketPriority.COSMETIC;
+                if (cosmetic && now - entry.queuedAt() > cosmeticMaxAgeNanos) {
+                    drop();
+                    continue;
+                }
+
+                Frame frame = decode(entry.payload());
+                if (frame == null) continue;
+
+                // A backlog holding two titles for the same player only needs to show the second
+                if (cosmetic && frame.packet() instanceof TargetedPacket targeted) {
+                    Integer previous = latestCosmetic.put(List.of(targeted.getClass(), targeted.targetPlayer()), frames.size());
+                    if (previous != null) {
+                        frames.set(previous, null);
+                        coalesced.increment();
+                    }
+                }
+
+                frames.add(frame);
+            }
+
+            for (Frame frame : frames) {
+                if (frame == null) continue;
+
+                try {
+                    handler.accept(channel, frame);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Could not handle packet on channel " + channel, e);
+                }
+            }
+
+            scheduled.set(false);
+
+            // Something may have arrived after the last poll, or the batch ran out first
+            if (!queue.isEmpty()) schedule();
+        }
+
+        @Nullable
+        private Frame decode(byte[] payload) {
+            try {
+                return decoder.decode(channel, payload);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Could not decode packet on channel " + channel, e);
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package net.voxelarc.allaychat.multiserver.dispatch;
+
+import net.voxelarc.allaychat.multiserver.packet.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * How a received packet is treated when its channel's queue backs up.
+ */
+public enum PacketPriority {
+
+    /**
+     * State changes and private messages, never dropped. Their queue may grow past its capacity instead.
+     */
+    CRITICAL,
+
+    /**
+     * Chat and everything else, dropped once the queue is full.
+     */
+    NORMAL,
+
+    /**
+     * Effects only worth showing right away. Shed once the queue is half full, dropped when stale,
+     * and superseded by a newer one for the same player waiting in the same queue.
+     */
+    COSMETIC;
+
+    private static final Map<Class<?>, PacketPriority> BY_TYPE = Map.ofEntries(
+            Map.entry(MutePacket.class, CRITICAL),
+            Map.entry(PrivateMessagePacket.class, CRITICAL),
+            Map.entry(DirectMessagePacket.class, CRITICAL),
+            Map.entry(DeliveredMessagePacket.class, CRITICAL),
+            Map.entry(TemplateMessagePacket.class, CRITICAL), // Private message copies and notices
+            Map.entry(SetLastReplyPacket.class, CRITICAL),
+            Map.entry(JoinPacket.class, CRITICAL),
+            Map.entry(QuitPacket.class, CRITICAL),
+            Map.entry(ClearPacket.class, CRITICAL),
+            Map.entry(SoundPacket.class, COSMETIC),
+            Map.entry(TitlePacket.class, COSMETIC),
+            Map.entry(ActionbarPacket.class, COSMETIC)
+    );
+
+    /**
+     * @param type the packet class, {@code null} if it could not be told
+     */
+    public static PacketPriority of(@Nullable Class<?> type) {
+        return type == null ? NORMAL : BY_TYPE.getOrDefault(type, NORMAL);
+    }
+
+}
@@ -0,0 +1,37 @@
+package net.voxelarc.allaychat.multiserver.inventory;
+
+import net.voxelarc.allaychat.multiserver.codec.PacketReader;
+import net.voxelarc.allaychat.multiserver.codec.PacketWriter;
+
+/**
+ * A shared inventory as compact bytes, turned into a Bukkit inventory only when somebody opens it.
+ *
+ * @param serializedTitle the title as Gson component JSON
+ * @param items           slots as written by {@link net.voxelarc.allaychat.multiserver.util.ItemSerializer#itemStackArrayToBytes}
+ */
+public record InventorySnapshot(String serializedTitle, int size, byte[] items) {
+
+    // Rough fixed cost of the record, its title string and the cache entry
+    private static final int OVERHEAD = 128;
+
+    /**
+     * @return approximate heap usage in bytes, used to bound the inventory cache
+     */
+    public int weight() {
+        return OVERHEAD + serializedTitle.length() * 2 + items.length;
+    }
+
+    public byte[] toBytes() {
+        PacketWriter writer = new PacketWriter(items.length + serializedTitle.length() + 16);
+        writer.writeString(serializedTitle);
+        writer.writeVarInt(size);
+        writer.writeBytes(items);
+        return writer.toByteArray();
+    }
+
+    public static InventorySnapshot fromBytes(byte[] data) {
+        PacketReader reader = new PacketReader(data);
+        return new InventorySnapshot(reader.readString(), reader.readVarInt(), reader.readBytes());
+    }
+
+}
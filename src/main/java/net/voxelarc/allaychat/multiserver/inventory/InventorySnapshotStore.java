@@ -0,0 +1,91 @@
+package net.voxelarc.allaychat.multiserver.inventory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import net.voxelarc.allaychat.multiserver.redis.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared inventory previews, stored once in Redis under a hash of their content and fetched
+ * by the other servers in the background, before any of their players opens them.
+ */
+public class InventorySnapshotStore {
+
+    public static final long TTL_SECONDS = TimeUnit.MINUTES.toSeconds(3);
+
+    // Identical shares only extend the lifetime of the stored copy
+    private static final RedisScript STORE = new RedisScript("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                redis.call('SET', KEYS[1], ARGV[1])
+            end
+            return redis.call('EXPIRE', KEYS[1], ARGV[2])
+            """);
+
+    private static final byte[] TTL_ARGUMENT = String.valueOf(TTL_SECONDS).getBytes(StandardCharsets.UTF_8);
+
+    private final RedisAsyncCommands<String, byte[]> commands;
+    private final String keyPrefix;
+
+    // Snapshots we uploaded ourselves recently, sharing them again only needs their lifetime extended
+    private final Cache<String, Boolean> recentlyStored = CacheBuilder.newBuilder()
+            .expireAfterWrite(TTL_SECONDS / 2, TimeUnit.SECONDS).build();
+
+    public InventorySnapshotStore(RedisAsyncCommands<String, byte[]> commands, String keyPrefix) {
+        this.commands = commands;
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * @return the content hash the snapshot can be loaded with
+     */
+    public CompletableFuture<String> store(InventorySnapshot snapshot) {
+        byte[] data = snapshot.toBytes();
+        String hash = hash(data);
+        String key = keyPrefix + hash;
+
+        if (recentlyStored.getIfPresent(hash) != null) {
+            return commands.expire(key, TTL_SECONDS).toCompletableFuture().thenCompose(refreshed -> {
+                if (refreshed) return CompletableFuture.completedFuture(hash);
+
+                // Gone on the Redis side already, upload it again
+                return upload(hash, key, data);
+            });
+        }
+
+        return upload(hash, key, data);
+    }
+
+    private CompletableFuture<String> upload(String hash, String key, byte[] data) {
+        return STORE.<String, byte[], Long>execute(commands, ScriptOutputType.INTEGER, new String[]{key}, data, TTL_ARGUMENT)
+                .thenApply(result -> {
+                    recentlyStored.put(hash, Boolean.TRUE);
+                    return hash;
+                });
+    }
+
+    /**
+     * @return the snapshot, or null if it expired
+     */
+    public CompletableFuture<InventorySnapshot> load(String hash) {
+        return commands.get(keyPrefix + hash).toCompletableFuture()
+                .thenApply(data -> data == null ? null : InventorySnapshot.fromBytes(data));
+    }
+
+    static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
@@ -3,8 +3,12 @@ package net.voxelarc.allaychat.multiserver.listener;
 import lombok.RequiredArgsConstructor;
 import net.voxelarc.allaychat.multiserver.MultiServerModule;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
@@ -15,16 +19,40 @@ public class ConnectionListener implements Listener {
 
     private final MultiServerModule module;
 
+    @EventHandler
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        module.awaitReady(event);
+
+        // Read ahead while the login finishes, /reply never waits for Redis
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            module.getReplyStore().load(event.getName());
+        }
+    }
+
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
+
         // Remove on PlayerQuitEvent may conflict on server switches, so we delay adding the player
-        Bukkit.getAsyncScheduler().runDelayed(module.getPlugin(),
-                (task) -> module.addPlayer(event.getPlayer().getName()), 1, TimeUnit.SECONDS);
+        Player player = event.getPlayer();
+        Bukkit.getAsyncScheduler().runDelayed(module.getPlugin(), (task) -> {
+            if (!player.isOnline()) return; // Left within the second, the quit was already handled
+
+            module.addPlayer(player.getName());
+            module.refreshUserIndexes(player);
+        }, 1, TimeUnit.SECONDS);
+    }
+
+    // Ignore and spy commands edit the user right away, so look at it again once the command has run
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onCommand(PlayerCommandPreprocessEvent event) {
+        module.refreshUserIndexes(event.getPlayer());
     }
 
     @EventHandler
     public void onQuit(PlayerQuitEvent event) {
         module.removePlayer(event.getPlayer().getName());
+        module.getReplyStore().forget(event.getPlayer().getName());
+        module.forgetUserIndexes(event.getPlayer().getUniqueId());
     }
 
 }
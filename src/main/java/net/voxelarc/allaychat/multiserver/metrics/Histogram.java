@@ -0,0 +1,85 @@
+package net.voxelarc.allaychat.multiserver.metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed bucket histogram of microsecond timings, cheap enough to record on every packet.
+ */
+public class Histogram {
+
+    // Upper bounds in microseconds, roughly 1-2.5-5 steps from 50µs to 10s
+    private static final long[] BOUNDS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 10_000_000
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+
+        int bucket = 0;
+        while (bucket < BOUNDS.length && micros > BOUNDS[bucket]) bucket++;
+
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(micros);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double meanMillis() {
+        long count = count();
+        return count == 0 ? 0 : sum.sum() / 1000D / count;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given quantile, in milliseconds
+     */
+    public double quantileMillis(double quantile) {
+        long count = count();
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) return BOUNDS[i] / 1000D;
+        }
+
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Appends the histogram in Prometheus text format, in seconds as Prometheus expects.
+     */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append(BigDecimal.valueOf(BOUNDS[i], 6).stripTrailingZeros().toPlainString()).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BOUNDS.length].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(String.format(Locale.ROOT, "%.6f", sum.sum() / 1_000_000D)).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+
+}
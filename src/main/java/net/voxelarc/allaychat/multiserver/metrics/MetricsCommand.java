@@ -0,0 +1,32 @@
+package net.voxelarc.allaychat.multiserver.metrics;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * {@code /allaychatmetrics}, prints the {@link NetworkMetrics} summary of this server.
+ */
+public class MetricsCommand extends Command {
+
+    private final NetworkMetrics metrics;
+
+    public MetricsCommand(NetworkMetrics metrics) {
+        super("allaychatmetrics", "Shows cross-server traffic and latency of this server", "/allaychatmetrics", List.of("acmetrics"));
+        this.metrics = metrics;
+        setPermission("allaychat.metrics");
+    }
+
+    @Override
+    public boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull String[] args) {
+        if (!testPermission(sender)) return true;
+
+        for (String line : metrics.summary()) {
+            sender.sendMessage(line);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,258 @@
+package net.voxelarc.allaychat.multiserver.metrics;
+
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and timings for everything crossing Redis, per channel, per packet type and per origin server.
+ * Labels only take values that survive a restart: inboxes are counted together as one {@code inbox} channel,
+ * and origins are named by their configured server name.
+ */
+public class NetworkMetrics {
+
+    private final Map<String, Traffic> published = new ConcurrentHashMap<>();
+    private final Map<String, Traffic> received = new ConcurrentHashMap<>();
+    private final Map<String, PacketTimings> packets = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> deliveryLatency = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, DispatchQueue> dispatchQueues = new ConcurrentHashMap<>();
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final LongAdder malformed = new LongAdder();
+
+    public void recordPublished(String channel, int bytes) {
+        published.computeIfAbsent(channelLabel(channel), key -> new Traffic()).record(bytes);
+    }
+
+    public void recordReceived(String channel, int bytes) {
+        received.computeIfAbsent(channelLabel(channel), key -> new Traffic()).record(bytes);
+    }
+
+    public void recordMalformed() {
+        malformed.increment();
+    }
+
+    public long malformed() {
+        return malformed.sum();
+    }
+
+    public void recordDecode(Class<?> type, long nanos) {
+        timings(type).decode.record(nanos / 1000);
+    }
+
+    public void recordHandle(Class<?> type, long nanos) {
+        timings(type).handle.record(nanos / 1000);
+    }
+
+    /**
+     * @param origin the name of the server the packet was published by
+     * @param sentAt the publisher's wall clock when encoding, so this includes any clock skew between the two
+     */
+    public void recordDelivery(String origin, long sentAt) {
+        deliveryLatency.computeIfAbsent(origin, key -> new Histogram())
+                .record((System.currentTimeMillis() - sentAt) * 1000);
+    }
+
+    /**
+     * Forgets the delivery latency of servers that are gone, keeping only the given names.
+     */
+    public void retainOrigins(Collection<String> origins) {
+        deliveryLatency.keySet().retainAll(origins);
+    }
+
+    /**
+     * Registers a value read whenever metrics are reported, such as a queue depth.
+     */
+    public synchronized void gauge(String name, String help, LongSupplier supplier) {
+        gauges.put(name, new Gauge(help, supplier));
+    }
+
+    /**
+     * Registers the receive queue of a channel, reported with its depth, capacity, drops and merged packets.
+     *
+     * @param type set for channels with a queue per packet type, such as {@code inbox/TitlePacket}
+     */
+    public void dispatchQueue(String channel, @Nullable Class<?> type, int capacity, LongSupplier depth, LongSupplier dropped, LongSupplier coalesced) {
+        String label = type == null ? channelLabel(channel) : channelLabel(channel) + "/" + type.getSimpleName();
+        dispatchQueues.put(label, new DispatchQueue(capacity, depth, dropped, coalesced));
+    }
+
+    /**
+     * Registers a Redis connection lane, reported with the commands it has in flight, their latency and failures.
+     */
+    public void lane(String name, LongSupplier inFlight, Histogram latency, LongSupplier failed) {
+        lanes.put(name, new Lane(inFlight, latency, failed));
+    }
+
+    private PacketTimings timings(Class<?> type) {
+        return packets.computeIfAbsent(type.getSimpleName(), key -> new PacketTimings());
+    }
+
+    /**
+     * @return a short human readable report, one line per entry
+     */
+    public synchronized List<String> summary() {
+        List<String> lines = new ArrayList<>();
+
+        lines.add("Channels (published / received):");
+        Set<String> channels = new TreeSet<>(published.keySet());
+        channels.addAll(received.keySet());
+        for (String channel : channels) {
+            Traffic out = published.getOrDefault(channel, Traffic.EMPTY);
+            Traffic in = received.getOrDefault(channel, Traffic.EMPTY);
+            lines.add(String.format(Locale.ROOT, "  %s: %d msgs %s / %d msgs %s",
+                    channel, out.count.sum(), bytes(out.bytes.sum()), in.count.sum(), bytes(in.bytes.sum())));
+        }
+
+        lines.add("Packets (received, decode p99, handle mean / p99):");
+        new TreeMap<>(packets).forEach((type, timings) -> lines.add(String.format(Locale.ROOT,
+                "  %s: %d, %.2f ms, %.2f / %.2f ms", type, timings.handle.count(),
+                timings.decode.quantileMillis(0.99), timings.handle.meanMillis(), timings.handle.quantileMillis(0.99))));
+
+        lines.add("Delivery latency by origin (count, p50 / p99):");
+        new TreeMap<>(deliveryLatency).forEach((origin, histogram) -> lines.add(String.format(Locale.ROOT,
+                "  %s: %d, %.2f / %.2f ms", origin, histogram.count(), histogram.quantileMillis(0.5), histogram.quantileMillis(0.99))));
+
+        lines.add("Dispatch queues (depth / capacity, dropped, coalesced):");
+        new TreeMap<>(dispatchQueues).forEach((channel, queue) -> lines.add(String.format(Locale.ROOT,
+                "  %s: %d / %d, %d, %d", channel, queue.depth.getAsLong(), queue.capacity,
+                queue.dropped.getAsLong(), queue.coalesced.getAsLong())));
+
+        lines.add("Redis lanes (in flight, p50 / p99, failed):");
+        new TreeMap<>(lanes).forEach((name, lane) -> lines.add(String.format(Locale.ROOT,
+                "  %s: %d, %.2f / %.2f ms, %d", name, lane.inFlight.getAsLong(),
+                lane.latency.quantileMillis(0.5), lane.latency.quantileMillis(0.99), lane.failed.getAsLong())));
+
+        gauges.forEach((name, gauge) -> lines.add(name + ": " + gauge.supplier.getAsLong()));
+        lines.add("malformed packets: " + malformed.sum());
+        return lines;
+    }
+
+    /**
+     * @return every metric in Prometheus text exposition format
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        writeTraffic(out, "allaychat_published", "published", published);
+        writeTraffic(out, "allaychat_received", "received", received);
+
+        out.append("# HELP allaychat_packet_decode_seconds Time spent decoding a packet\n");
+        out.append("# TYPE allaychat_packet_decode_seconds histogram\n");
+        packets.forEach((type, timings) -> timings.decode.writePrometheus(out, "allaychat_packet_decode_seconds", label("type", type)));
+
+        out.append("# HELP allaychat_packet_handle_seconds Time spent handling a decoded packet\n");
+        out.append("# TYPE allaychat_packet_handle_seconds histogram\n");
+        packets.forEach((type, timings) -> timings.handle.writePrometheus(out, "allaychat_packet_handle_seconds", label("type", type)));
+
+        out.append("# HELP allaychat_delivery_latency_seconds Time from encoding on the origin server to receipt here\n");
+        out.append("# TYPE allaychat_delivery_latency_seconds histogram\n");
+        deliveryLatency.forEach((origin, histogram) -> histogram.writePrometheus(out, "allaychat_delivery_latency_seconds", label("origin", origin)));
+
+        out.append("# HELP allaychat_malformed_packets_total Packets dropped because they could not be decoded\n");
+        out.append("# TYPE allaychat_malformed_packets_total counter\n");
+        out.append("allaychat_malformed_packets_total ").append(malformed.sum()).append('\n');
+
+        out.append("# HELP allaychat_dispatch_queue_depth Received packets waiting to be handled per channel\n");
+        out.append("# TYPE allaychat_dispatch_queue_depth gauge\n");
+        dispatchQueues.forEach((channel, queue) -> out.append("allaychat_dispatch_queue_depth{")
+                .append(label("channel", channel)).append("} ").append(queue.depth.getAsLong()).append('\n'));
+
+        out.append("# HELP allaychat_dispatch_queue_capacity Received packets a channel may have waiting\n");
+        out.append("# TYPE allaychat_dispatch_queue_capacity gauge\n");
+        dispatchQueues.forEach((channel, queue) -> out.append("allaychat_dispatch_queue_capacity{")
+                .append(label("channel", channel)).append("} ").append(queue.capacity).append('\n'));
+
+        out.append("# HELP allaychat_dispatch_coalesced_total Cosmetic packets skipped for a newer one to the same player\n");
+        out.append("# TYPE allaychat_dispatch_coalesced_total counter\n");
+        dispatchQueues.forEach((channel, queue) -> out.append("allaychat_dispatch_coalesced_total{")
+                .append(label("channel", channel)).append("} ").append(queue.coalesced.getAsLong()).append('\n'));
+
+        out.append("# HELP allaychat_dispatch_dropped_total Received packets dropped because their channel's queue was full or they went stale\n");
+        out.append("# TYPE allaychat_dispatch_dropped_total counter\n");
+        dispatchQueues.forEach((channel, queue) -> out.append("allaychat_dispatch_dropped_total{")
+                .append(label("channel", channel)).append("} ").append(queue.dropped.getAsLong()).append('\n'));
+
+        out.append("# HELP allaychat_lane_in_flight Redis commands sent on a connection lane and not answered yet\n");
+        out.append("# TYPE allaychat_lane_in_flight gauge\n");
+        lanes.forEach((name, lane) -> out.append("allaychat_lane_in_flight{")
+                .append(label("lane", name)).append("} ").append(lane.inFlight.getAsLong()).append('\n'));
+
+        out.append("# HELP allaychat_lane_latency_seconds Time from sending a Redis command on a connection lane to its answer\n");
+        out.append("# TYPE allaychat_lane_latency_seconds histogram\n");
+        lanes.forEach((name, lane) -> lane.latency.writePrometheus(out, "allaychat_lane_latency_seconds", label("lane", name)));
+
+        out.append("# HELP allaychat_lane_failed_total Redis commands on a connection lane that failed or timed out\n");
+        out.append("# TYPE allaychat_lane_failed_total counter\n");
+        lanes.forEach((name, lane) -> out.append("allaychat_lane_failed_total{")
+                .append(label("lane", name)).append("} ").append(lane.failed.getAsLong()).append('\n'));
+
+        gauges.forEach((name, gauge) -> {
+            out.append("# HELP allaychat_").append(name).append(' ').append(gauge.help).append('\n');
+            out.append("# TYPE allaychat_").append(name).append(" gauge\n");
+            out.append("allaychat_").append(name).append(' ').append(gauge.supplier.getAsLong()).append('\n');
+        });
+
+        return out.toString();
+    }
+
+    private static void writeTraffic(StringBuilder out, String name, String verb, Map<String, Traffic> traffic) {
+        out.append("# HELP ").append(name).append("_messages_total Messages ").append(verb).append(" per channel\n");
+        out.append("# TYPE ").append(name).append("_messages_total counter\n");
+        traffic.forEach((channel, entry) -> out.append(name).append("_messages_total{")
+                .append(label("channel", channel)).append("} ").append(entry.count.sum()).append('\n'));
+
+        out.append("# HELP ").append(name).append("_bytes_total Payload bytes ").append(verb).append(" per channel\n");
+        out.append("# TYPE ").append(name).append("_bytes_total counter\n");
+        traffic.forEach((channel, entry) -> out.append(name).append("_bytes_total{")
+                .append(label("channel", channel)).append("} ").append(entry.bytes.sum()).append('\n'));
+    }
+
+    private static String channelLabel(String channel) {
+        return ChannelNames.isInbox(channel) ? "inbox" : channel;
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024D);
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024D * 1024D));
+    }
+
+    private static class Traffic {
+
+        private static final Traffic EMPTY = new Traffic();
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        private void record(int size) {
+            count.increment();
+            bytes.add(size);
+        }
+
+    }
+
+    private static class PacketTimings {
+        private final Histogram decode = new Histogram();
+        private final Histogram handle = new Histogram();
+    }
+
+    private record Gauge(String help, LongSupplier supplier) {
+    }
+
+    private record Lane(LongSupplier inFlight, Histogram latency, LongSupplier failed) {
+    }
+
+    private record DispatchQueue(int capacity, LongSupplier depth, LongSupplier dropped, LongSupplier coalesced) {
+    }
+
+}
@@ -1,5 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record ActionbarPacket(String playerName, String serializedComponent) {
+public record ActionbarPacket(String playerName, String serializedComponent) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return playerName;
+    }
 
 }
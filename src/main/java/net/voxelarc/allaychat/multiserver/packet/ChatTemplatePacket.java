@@ -0,0 +1,10 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+/**
+ * A {@link MessagePacket} carrying what the player typed instead of the rendered line, every server renders it
+ * from its own chat-template.
+ *
+ * @param displayName the sender's display name in MiniMessage
+ */
+public record ChatTemplatePacket(String group, String playerName, String displayName, String message) {
+}
@@ -0,0 +1,5 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+public record ClearPacket(String group, String serverId, long sequence) {
+
+}
@@ -0,0 +1,8 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+/**
+ * Sent to every server of the group once the recipient of a {@link DirectMessagePacket} got it: the sender's server
+ * shows the sender's copy and notes the reply pair, every server shows the spy copy to its spies.
+ */
+public record DeliveredMessagePacket(String group, String sender, String recipient, String message) {
+}
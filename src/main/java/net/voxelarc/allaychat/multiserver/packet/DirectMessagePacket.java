@@ -0,0 +1,15 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+/**
+ * A private message, routed to its recipient's server. That server shows it, or tells the sender why it can't,
+ * and answers with a {@link DeliveredMessagePacket} once the recipient got it. Replaces a {@link PrivateMessagePacket}
+ * and the four packets its recipient's server sent back.
+ */
+public record DirectMessagePacket(String group, String sender, String recipient, String message) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return recipient;
+    }
+
+}
@@ -0,0 +1,7 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+import java.util.UUID;
+
+public record InventoryReferencePacket(String group, UUID id, String snapshotHash) {
+
+}
@@ -1,5 +1,5 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record JoinPacket(String playerName, String group) {
+public record JoinPacket(String playerName, String group, String serverId, long sequence) {
 
 }
@@ -1,5 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record MentionPacket(String mentionedPlayer, String mentionerPlayer, String group) {
+public record MentionPacket(String mentionedPlayer, String mentionerPlayer, String group) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return mentionedPlayer;
+    }
 
 }
@@ -1,4 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record PrivateMessagePacket(String sender, String recipient, String message, String group) {
+public record PrivateMessagePacket(String sender, String recipient, String message, String group) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return recipient;
+    }
+
 }
@@ -1,5 +1,5 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record QuitPacket(String playerName, String group) {
+public record QuitPacket(String playerName, String group, long sequence) {
 
 }
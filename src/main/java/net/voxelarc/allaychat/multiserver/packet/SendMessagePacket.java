@@ -1,4 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record SendMessagePacket(String playerName, String serializedComponent) {
+public record SendMessagePacket(String playerName, String serializedComponent) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return playerName;
+    }
+
 }
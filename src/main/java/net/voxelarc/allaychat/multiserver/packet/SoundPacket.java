@@ -1,4 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record SoundPacket(String playerName, String soundKey) {
+public record SoundPacket(String playerName, String soundKey) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return playerName;
+    }
+
 }
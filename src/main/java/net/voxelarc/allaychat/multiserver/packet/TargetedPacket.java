@@ -0,0 +1,10 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+/**
+ * A packet meant for a single player, which can be routed to the server that player is on.
+ */
+public interface TargetedPacket {
+
+    String targetPlayer();
+
+}
@@ -0,0 +1,16 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+import java.util.List;
+
+/**
+ * A {@link SendMessagePacket} carrying a {@link net.voxelarc.allaychat.multiserver.chat.MessageTemplate} id
+ * and its placeholder values instead of the rendered component.
+ */
+public record TemplateMessagePacket(String playerName, int template, List<String> arguments) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return playerName;
+    }
+
+}
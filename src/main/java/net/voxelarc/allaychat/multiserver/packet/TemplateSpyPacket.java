@@ -0,0 +1,10 @@
+package net.voxelarc.allaychat.multiserver.packet;
+
+import java.util.List;
+
+/**
+ * A {@link SpyMessagePacket} carrying a {@link net.voxelarc.allaychat.multiserver.chat.MessageTemplate} id
+ * and its placeholder values instead of the rendered component.
+ */
+public record TemplateSpyPacket(String group, int template, List<String> arguments) {
+}
@@ -1,5 +1,10 @@
 package net.voxelarc.allaychat.multiserver.packet;
 
-public record TitlePacket(String playerName, String serializedComponentTitle, String serializedComponentSubtitle) {
+public record TitlePacket(String playerName, String serializedComponentTitle, String serializedComponentSubtitle) implements TargetedPacket {
+
+    @Override
+    public String targetPlayer() {
+        return playerName;
+    }
 
 }
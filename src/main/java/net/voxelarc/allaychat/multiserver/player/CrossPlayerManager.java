@@ -4,20 +4,173 @@ import lombok.RequiredArgsConstructor;
 import net.kyori.adventure.text.Component;
 import net.voxelarc.allaychat.api.player.PlayerManager;
 import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.chat.MentionMatcher;
+import net.voxelarc.allaychat.multiserver.chat.MessageTemplate;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
 @RequiredArgsConstructor
 public class CrossPlayerManager implements PlayerManager {
 
     private final MultiServerModule module;
 
-    private final Set<String> playerList = ConcurrentHashMap.newKeySet();
+    // Every player of the group and the server they are on, the index takes care of its own locking
+    private final NameIndex players = new NameIndex();
+
+    // Directory deltas are numbered by a counter in Redis and applied strictly in that order
+    private boolean synced = false;
+    private long appliedSequence = 0;
+    private long lastRemoteSequence = 0;
+    private long gapSince = 0;
+    private boolean unversionedDelta = false;
+    private boolean resyncRequested = false;
+    private final TreeMap<Long, Runnable> pending = new TreeMap<>();
 
     @Override
     public Set<String> getAllPlayers() {
-        return playerList;
+        return players.names();
+    }
+
+    /**
+     * Kept in step with the player list, so mentions are found without scanning every name.
+     */
+    public MentionMatcher getMentionMatcher() {
+        return players.mentionMatcher();
+    }
+
+    /**
+     * @return the name as the player spells it, or null if nobody by that name is online in the group
+     */
+    @Nullable
+    public String findPlayer(String name) {
+        return players.find(name);
+    }
+
+    /**
+     * Tab completion over the whole group, ignoring case.
+     *
+     * @return at most {@code limit} names starting with the prefix, in alphabetical order
+     */
+    public List<String> completePlayers(String prefix, int limit) {
+        return players.complete(prefix, limit);
+    }
+
+    /**
+     * @return the id of the server the player was last seen on, or null if unknown
+     */
+    @Nullable
+    public String getServer(String playerName) {
+        return players.route(playerName);
+    }
+
+    /**
+     * Puts a player who just joined this server on the list right away, before their join comes back as a delta.
+     */
+    public void setRoute(String playerName, String serverId) {
+        players.put(playerName, serverId);
+    }
+
+    /**
+     * Forgets where the player is, only if it is still the given server, so a newer route is never lost.
+     * They stay on the player list.
+     */
+    public void removeRoute(String playerName, String serverId) {
+        players.removeRoute(playerName, serverId);
+    }
+
+    /**
+     * Takes a player who left this server off the list without waiting for a delta, for when there are none.
+     */
+    public void removeLocal(String playerName, String serverId) {
+        players.remove(playerName, serverId);
+    }
+
+    public synchronized void applyJoin(String playerName, @Nullable String serverId, long sequence) {
+        apply(sequence, () -> players.put(playerName, serverId));
+    }
+
+    public synchronized void applyQuit(String playerName, long sequence) {
+        apply(sequence, () -> players.remove(playerName));
+    }
+
+    /**
+     * Removes every player that is on the given server, e.g. once it shut down or its lease ran out.
+     */
+    public synchronized void applyClear(String serverId, long sequence) {
+        apply(sequence, () -> players.removeServer(serverId));
+    }
+
+    /**
+     * Replaces the whole player list with a snapshot taken at the given sequence,
+     * then replays any newer deltas that arrived in the meantime.
+     */
+    public synchronized void applySnapshot(long sequence, Map<String, String> snapshot) {
+        players.replaceAll(snapshot);
+
+        synced = true;
+        unversionedDelta = false;
+        resyncRequested = false;
+        appliedSequence = sequence;
+        pending.headMap(sequence, true).clear();
+        drain();
+    }
+
+    /**
+     * Decides whether the local directory can no longer be trusted and has to be reloaded.
+     *
+     * @param remoteSequence the current value of the sequence counter in Redis
+     * @param gapTimeout     how long a missing delta may be waited for, in milliseconds
+     */
+    public synchronized boolean needsResync(long remoteSequence, long gapTimeout) {
+        boolean stillBehind = appliedSequence < Math.min(remoteSequence, lastRemoteSequence);
+        lastRemoteSequence = remoteSequence;
+
+        return !synced
+                || unversionedDelta
+                || resyncRequested
+                || remoteSequence < appliedSequence // counter was reset, e.g. Redis was flushed
+                || stillBehind // a delta never arrived since the last check
+                || (gapSince != 0 && System.currentTimeMillis() - gapSince > gapTimeout);
+    }
+
+    /**
+     * Has the next {@link #needsResync} check reload the list, for changes that could not be made as a delta.
+     */
+    public synchronized void requestResync() {
+        resyncRequested = true;
+    }
+
+    private void apply(long sequence, Runnable delta) {
+        // Sent by a server without a directory counter, apply it now and reload on the next check
+        if (sequence == 0) {
+            delta.run();
+            unversionedDelta = true;
+            return;
+        }
+
+        if (synced && sequence <= appliedSequence) return;
+
+        pending.put(sequence, delta);
+        if (synced) drain();
+    }
+
+    private void drain() {
+        Map.Entry<Long, Runnable> next;
+        while ((next = pending.firstEntry()) != null && next.getKey() == appliedSequence + 1) {
+            pending.pollFirstEntry();
+            next.getValue().run();
+            appliedSequence++;
+        }
+
+        if (pending.isEmpty()) {
+            gapSince = 0;
+        } else if (gapSince == 0) {
+            gapSince = System.currentTimeMillis();
+        }
     }
 
     @Override
@@ -25,6 +178,10 @@ public class CrossPlayerManager implements PlayerManager {
         module.publishSendMessage(playerName, component);
     }
 
+    public void sendTemplate(String playerName, MessageTemplate template, String... arguments) {
+        module.publishTemplate(playerName, template, arguments);
+    }
+
     @Override
     public void broadcast(Component component) {
         this.broadcast(component, null);
@@ -0,0 +1,190 @@
+package net.voxelarc.allaychat.multiserver.player;
+
+import net.voxelarc.allaychat.multiserver.chat.MentionMatcher;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The network players and the server each of them is on, keyed by name in lower case for case-insensitive lookups
+ * in constant time. Everything else about the names is derived from it and kept in step: a sorted key set, so tab
+ * completion only visits the names it returns, and the {@link MentionMatcher} automaton. The sorted set shares the
+ * key strings, and a name that is already in lower case is its own key, so most names are stored once.
+ * <p>
+ * Changes are serialized here, lookups never wait for them. Replacing every player at once swaps all of it
+ * together, so readers never see one part reloaded and another not yet.
+ */
+public class NameIndex {
+
+    private volatile State state = new State();
+    private final Set<String> names = new Names();
+
+    /**
+     * Adds the player, or moves them to the given server.
+     *
+     * @param serverId null if the server is unknown
+     */
+    public synchronized void put(String name, @Nullable String serverId) {
+        State current = state;
+        String key = normalize(name);
+        Entry previous = current.entries.put(key, new Entry(name, serverId));
+
+        if (previous == null) {
+            current.sorted.add(key);
+        } else if (!previous.name.equals(name)) {
+            current.mentions.remove(previous.name);
+        }
+        current.mentions.add(name);
+    }
+
+    public synchronized void remove(String name) {
+        State current = state;
+        String key = normalize(name);
+        Entry removed = current.entries.remove(key);
+        if (removed == null) return;
+
+        current.sorted.remove(key);
+        current.mentions.remove(removed.name);
+    }
+
+    /**
+     * Removes the player only if they are still on the given server, so a newer join is never lost.
+     */
+    public synchronized void remove(String name, String serverId) {
+        Entry entry = state.entries.get(normalize(name));
+        if (entry != null && serverId.equals(entry.serverId)) remove(name);
+    }
+
+    /**
+     * Removes every player on the given server.
+     */
+    public synchronized void removeServer(String serverId) {
+        for (Entry entry : List.copyOf(state.entries.values())) {
+            if (serverId.equals(entry.serverId)) remove(entry.name);
+        }
+    }
+
+    /**
+     * Forgets which server the player is on, as long as it is still the given one. The player stays online.
+     */
+    public synchronized void removeRoute(String name, String serverId) {
+        state.entries.computeIfPresent(normalize(name), (key, entry) ->
+                serverId.equals(entry.serverId) ? new Entry(entry.name, null) : entry);
+    }
+
+    /**
+     * Replaces every player at once, e.g. after the network player list was reloaded.
+     *
+     * @param players name -> id of the server the player is on
+     */
+    public synchronized void replaceAll(Map<String, String> players) {
+        State replacement = new State();
+        players.forEach((name, serverId) -> {
+            String key = normalize(name);
+            replacement.entries.put(key, new Entry(name, serverId));
+            replacement.sorted.add(key);
+        });
+        replacement.mentions.setAll(replacement.entries.values().stream().map(Entry::name).toList());
+
+        state = replacement;
+    }
+
+    /**
+     * @return the name as the player spells it, or null if nobody by that name is online
+     */
+    @Nullable
+    public String find(String name) {
+        Entry entry = state.entries.get(normalize(name));
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * @return the id of the server the player is on, or null if unknown
+     */
+    @Nullable
+    public String route(String name) {
+        Entry entry = state.entries.get(normalize(name));
+        return entry == null ? null : entry.serverId;
+    }
+
+    /**
+     * @return at most {@code limit} names starting with the prefix, ignoring case, in alphabetical order
+     */
+    public List<String> complete(String prefix, int limit) {
+        State current = state;
+        String start = normalize(prefix);
+        List<String> found = new ArrayList<>(Math.min(limit, 16));
+
+        for (String key : current.sorted.tailSet(start)) {
+            if (found.size() >= limit || !key.startsWith(start)) break;
+
+            Entry entry = current.entries.get(key);
+            if (entry != null) found.add(entry.name); // null if removed while iterating
+        }
+
+        return found;
+    }
+
+    /**
+     * @return a read-only view of every name as the player spells it, following changes
+     */
+    public Set<String> names() {
+        return names;
+    }
+
+    /**
+     * Kept in step with the names, so mentions are found without scanning every one of them.
+     */
+    public MentionMatcher mentionMatcher() {
+        return state.mentions;
+    }
+
+    public int size() {
+        return state.entries.size();
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private record Entry(String name, @Nullable String serverId) {
+    }
+
+    // Lower case name -> entry, and everything derived from the names
+    private record State(Map<String, Entry> entries, NavigableSet<String> sorted, MentionMatcher mentions) {
+
+        private State() {
+            this(new ConcurrentHashMap<>(), new ConcurrentSkipListSet<>(), new MentionMatcher());
+        }
+
+    }
+
+    private class Names extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return state.entries.values().stream().map(Entry::name).iterator();
+        }
+
+        @Override
+        public int size() {
+            return state.entries.size();
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return object instanceof String name && name.equals(find(name));
+        }
+
+    }
+
+}
@@ -0,0 +1,311 @@
+package net.voxelarc.allaychat.multiserver.player;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import net.voxelarc.allaychat.multiserver.redis.RedisScript;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The Redis side of the network player list and server presence. Every change bumps a sequence counter
+ * in the same script, so receivers can apply deltas in order and tell when they missed one.
+ * <p>
+ * Servers prove they are alive through an expiring lease key and track their own players in a set,
+ * so a dead server can be cleaned up from that set alone, by any server, in one script per dead server.
+ */
+public class PlayerDirectory {
+
+    // KEYS: player hash, sequence, own player set, server hash, own lease, set of servers using leases, mesh addresses,
+    // server names.
+    // Every key a script touches is passed in, none is built inside a script.
+
+    // KEYS[9] is the player set of the server the caller saw the player on, returns -1 if that changed in the meantime
+    private static final RedisScript JOIN = new RedisScript("""
+            local previous = redis.call('HGET', KEYS[1], ARGV[1]) or ''
+            if previous ~= ARGV[3] then
+                return -1
+            end
+            if previous ~= '' and previous ~= ARGV[2] then
+                redis.call('SREM', KEYS[9], ARGV[1])
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('SADD', KEYS[3], ARGV[1])
+            return redis.call('INCR', KEYS[2])
+            """);
+
+    // Only removes the player if they are still registered to this server, they may have already moved on
+    private static final RedisScript QUIT = new RedisScript("""
+            redis.call('SREM', KEYS[3], ARGV[1])
+            if redis.call('HGET', KEYS[1], ARGV[1]) ~= ARGV[2] then
+                return 0
+            end
+            redis.call('HDEL', KEYS[1], ARGV[1])
+            return redis.call('INCR', KEYS[2])
+            """);
+
+    private static final RedisScript SNAPSHOT = new RedisScript("""
+            return { redis.call('GET', KEYS[2]) or '0', redis.call('HGETALL', KEYS[1]) }
+            """);
+
+    // The server hash keeps the last heartbeat time, servers predating leases are judged by it alone.
+    // Mesh addresses live in a hash of their own, every field of the server hash is taken for a server id.
+    // Returns 1 if the lease had already run out
+    private static final RedisScript HEARTBEAT = new RedisScript("""
+            local lapsed = redis.call('EXISTS', KEYS[5]) == 0
+            redis.call('SET', KEYS[5], '1', 'PX', ARGV[1])
+            redis.call('HSET', KEYS[4], ARGV[2], ARGV[3])
+            redis.call('SADD', KEYS[6], ARGV[2])
+            if ARGV[4] ~= '' then
+                redis.call('HSET', KEYS[7], ARGV[2], ARGV[4])
+            end
+            redis.call('HSET', KEYS[8], ARGV[2], ARGV[5])
+            return lapsed and 1 or 0
+            """);
+
+    // Removes this server and all of its players at once, returns the sequence of the change
+    private static final RedisScript DEREGISTER = new RedisScript("""
+            for _, name in ipairs(redis.call('SMEMBERS', KEYS[3])) do
+                if redis.call('HGET', KEYS[1], name) == ARGV[1] then
+                    redis.call('HDEL', KEYS[1], name)
+                end
+            end
+            redis.call('DEL', KEYS[3], KEYS[5])
+            redis.call('HDEL', KEYS[4], ARGV[1])
+            redis.call('HDEL', KEYS[7], ARGV[1])
+            redis.call('HDEL', KEYS[8], ARGV[1])
+            redis.call('SREM', KEYS[6], ARGV[1])
+            return redis.call('INCR', KEYS[2])
+            """);
+
+    // Run with the keys of the server to remove, see keysFor. Checks again that the server is dead, it may have
+    // renewed its lease since the caller looked, and returns the sequence of the change or 0 if nothing was removed
+    private static final RedisScript CLEANUP = new RedisScript("""
+            local id = ARGV[1]
+            local heartbeat = redis.call('HGET', KEYS[4], id)
+            if not heartbeat then
+                return 0
+            end
+            if redis.call('SISMEMBER', KEYS[6], id) == 1 then
+                if redis.call('EXISTS', KEYS[5]) == 1 then
+                    return 0
+                end
+            elseif tonumber(ARGV[2]) - (tonumber(heartbeat) or 0) <= tonumber(ARGV[3]) then
+                return 0
+            end
+            if redis.call('EXISTS', KEYS[3]) == 1 then
+                for _, name in ipairs(redis.call('SMEMBERS', KEYS[3])) do
+                    if redis.call('HGET', KEYS[1], name) == id then
+                        redis.call('HDEL', KEYS[1], name)
+                    end
+                end
+                redis.call('DEL', KEYS[3])
+            else
+                local players = redis.call('HGETALL', KEYS[1])
+                for i = 1, #players, 2 do
+                    if players[i + 1] == id then
+                        redis.call('HDEL', KEYS[1], players[i])
+                    end
+                end
+            end
+            redis.call('HDEL', KEYS[4], id)
+            redis.call('HDEL', KEYS[7], id)
+            redis.call('HDEL', KEYS[8], id)
+            redis.call('SREM', KEYS[6], id)
+            return redis.call('INCR', KEYS[2])
+            """);
+
+    // A player who moves faster than this many joins can run is left to the next full resync
+    private static final int REGISTER_ATTEMPTS = 3;
+
+    private final RedisAsyncCommands<String, String> commands;
+    private final RedisAsyncCommands<String, String> maintenance;
+    private final String[] keys;
+    private final String leasePrefix;
+    private final String playerSetPrefix;
+    private final String serverId;
+    private final String serverName;
+
+    private volatile String meshAddress = "";
+
+    /**
+     * @param commands    for joins and quits, which players are waiting on
+     * @param maintenance for everything else, whole hash reads and cleanups included
+     */
+    public PlayerDirectory(RedisAsyncCommands<String, String> commands, RedisAsyncCommands<String, String> maintenance,
+                           String playerListKey, String serverListKey, String serverId, String serverName) {
+        this.commands = commands;
+        this.maintenance = maintenance;
+        this.leasePrefix = serverListKey + ":lease:";
+        this.playerSetPrefix = serverListKey + ":players:";
+        this.serverId = serverId;
+        this.serverName = serverName;
+        this.keys = new String[]{
+                playerListKey,
+                playerListKey + ":seq",
+                playerSetPrefix + serverId,
+                serverListKey,
+                leasePrefix + serverId,
+                serverListKey + ":leased",
+                serverListKey + ":mesh",
+                serverListKey + ":names"
+        };
+    }
+
+    /**
+     * @return the key that exists for as long as the server with this id holds its lease
+     */
+    public String leaseKey(String serverId) {
+        return leasePrefix + serverId;
+    }
+
+    // The same keys as this server's, with the player set and lease of another one
+    private String[] keysFor(String id) {
+        String[] serverKeys = keys.clone();
+        serverKeys[2] = playerSetPrefix + id;
+        serverKeys[4] = leaseKey(id);
+        return serverKeys;
+    }
+
+    /**
+     * Reads which server the player was on first, so the script can be given that server's player set as a key,
+     * and starts over if they moved again before the script ran, up to {@value #REGISTER_ATTEMPTS} times.
+     *
+     * @return the sequence number of this change, or 0 if the player kept moving and was not registered
+     */
+    public CompletableFuture<Long> register(String playerName) {
+        return register(playerName, REGISTER_ATTEMPTS);
+    }
+
+    private CompletableFuture<Long> register(String playerName, int attempts) {
+        return commands.hget(keys[0], playerName).toCompletableFuture().thenCompose(previous -> {
+            String[] joinKeys = Arrays.copyOf(keys, keys.length + 1);
+            joinKeys[keys.length] = playerSetPrefix + (previous == null ? serverId : previous);
+
+            return JOIN.<String, String, Long>execute(commands, ScriptOutputType.INTEGER, joinKeys, playerName, serverId, previous == null ? "" : previous);
+        }).thenCompose(sequence -> {
+            if (sequence >= 0) return CompletableFuture.completedFuture(sequence);
+            return attempts > 1 ? register(playerName, attempts - 1) : CompletableFuture.completedFuture(0L);
+        });
+    }
+
+    /**
+     * @return the sequence number of this change, or 0 if the player belongs to another server by now
+     */
+    public CompletableFuture<Long> unregister(String playerName) {
+        return QUIT.execute(commands, ScriptOutputType.INTEGER, keys, playerName, serverId);
+    }
+
+    public CompletableFuture<Long> currentSequence() {
+        return maintenance.get(keys[1]).toCompletableFuture().thenApply(value -> value == null ? 0L : Long.parseLong(value));
+    }
+
+    /**
+     * Loads the whole player list together with the sequence it is valid for.
+     */
+    public CompletableFuture<Snapshot> snapshot() {
+        return SNAPSHOT.<String, String, List<Object>>execute(maintenance, ScriptOutputType.MULTI, keys).thenApply(result -> {
+            long sequence = Long.parseLong(String.valueOf(result.get(0)));
+
+            List<?> flat = (List<?>) result.get(1);
+            Map<String, String> players = new HashMap<>(flat.size() / 2);
+            for (int i = 0; i + 1 < flat.size(); i += 2) {
+                players.put(String.valueOf(flat.get(i)), String.valueOf(flat.get(i + 1)));
+            }
+
+            return new Snapshot(sequence, players);
+        });
+    }
+
+    /**
+     * Renews this server's lease, it has to be called well within the lease time.
+     *
+     * @return whether the lease had run out, in which case any server may have removed this one's players meanwhile
+     */
+    public CompletableFuture<Boolean> heartbeat(long leaseMillis) {
+        return HEARTBEAT.<String, String, Long>execute(maintenance, ScriptOutputType.INTEGER, keys,
+                String.valueOf(leaseMillis), serverId, String.valueOf(System.currentTimeMillis()), meshAddress, serverName
+        ).thenApply(lapsed -> lapsed == 1);
+    }
+
+    /**
+     * Announces where other servers can reach this one directly, from the next heartbeat on.
+     *
+     * @param address host:port
+     */
+    public void setMeshAddress(String address) {
+        this.meshAddress = address;
+    }
+
+    /**
+     * @return server id -> host:port of every server announcing a mesh address, this one included
+     */
+    public CompletableFuture<Map<String, String>> meshAddresses() {
+        return maintenance.hgetall(keys[6]).toCompletableFuture();
+    }
+
+    /**
+     * @return server id -> configured name of every live server, servers predating names are missing
+     */
+    public CompletableFuture<Map<String, String>> serverNames() {
+        return maintenance.hgetall(keys[7]).toCompletableFuture();
+    }
+
+    /**
+     * Removes this server and every player registered to it in one step.
+     *
+     * @return the sequence number of this change
+     */
+    public CompletableFuture<Long> deregister() {
+        return DEREGISTER.execute(maintenance, ScriptOutputType.INTEGER, keys, serverId);
+    }
+
+    /**
+     * Removes every server whose lease ran out, along with its players. Safe to run from any number of servers.
+     * Finding the dead servers is a plain read, each of them is then removed by a script of its own.
+     *
+     * @param legacyTimeoutMillis how old the heartbeat of a server without a lease may be before it is removed
+     * @return dead server id -> sequence number of its removal
+     */
+    public CompletableFuture<Map<String, Long>> cleanupDeadServers(long legacyTimeoutMillis) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Set<String>> leased = maintenance.smembers(keys[5]).toCompletableFuture();
+
+        return maintenance.hgetall(keys[3]).toCompletableFuture().thenCombine(leased, (heartbeats, leasedIds) -> {
+            Map<String, CompletableFuture<Long>> removals = new HashMap<>();
+            heartbeats.forEach((id, heartbeat) -> {
+                CompletableFuture<Boolean> dead = leasedIds.contains(id)
+                        ? maintenance.exists(leaseKey(id)).toCompletableFuture().thenApply(count -> count == 0)
+                        : CompletableFuture.completedFuture(now - parseMillis(heartbeat) > legacyTimeoutMillis);
+
+                removals.put(id, dead.thenCompose(isDead -> !isDead ? CompletableFuture.completedFuture(0L)
+                        : CLEANUP.<String, String, Long>execute(maintenance, ScriptOutputType.INTEGER, keysFor(id),
+                                id, String.valueOf(now), String.valueOf(legacyTimeoutMillis))));
+            });
+            return removals;
+        }).thenCompose(removals -> CompletableFuture.allOf(removals.values().toArray(CompletableFuture[]::new)).thenApply(done -> {
+            Map<String, Long> removed = new HashMap<>();
+            removals.forEach((id, removal) -> {
+                long sequence = removal.join();
+                if (sequence > 0) removed.put(id, sequence);
+            });
+            return removed;
+        }));
+    }
+
+    private static long parseMillis(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public record Snapshot(long sequence, Map<String, String> players) {
+    }
+
+}
@@ -0,0 +1,51 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+/**
+ * Maps the global channel names onto the group scoped channels binary traffic is published on.
+ */
+public final class ChannelNames {
+
+    private static final String PREFIX = "allaychat:";
+    private static final String INBOX = "allaychat:inbox:";
+
+    private ChannelNames() {
+    }
+
+    /**
+     * {@code allaychat:message:main} becomes {@code allaychat:<group>:message:main}.
+     */
+    public static String scoped(String group, String channel) {
+        return PREFIX + group + ":" + channel.substring(PREFIX.length());
+    }
+
+    public static String inbox(String group, String serverId) {
+        return scoped(group, INBOX + serverId);
+    }
+
+    /**
+     * @return the server id if the channel is an inbox of the group, null otherwise
+     */
+    public static String inboxOwner(String group, String channel) {
+        String prefix = inbox(group, "");
+        return channel.startsWith(prefix) ? channel.substring(prefix.length()) : null;
+    }
+
+    /**
+     * @return whether the channel or stream is the inbox of some server, of any group
+     */
+    public static boolean isInbox(String channel) {
+        return channel.contains(":inbox:");
+    }
+
+    /**
+     * The stream carrying all group traffic in streams mode.
+     */
+    public static String stream(String group) {
+        return PREFIX + group + ":stream";
+    }
+
+    public static String inboxStream(String group, String serverId) {
+        return PREFIX + group + ":stream:inbox:" + serverId;
+    }
+
+}
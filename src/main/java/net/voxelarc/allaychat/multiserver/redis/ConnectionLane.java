@@ -0,0 +1,122 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import lombok.Getter;
+import net.voxelarc.allaychat.multiserver.metrics.Histogram;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis connections reserved for one kind of work, so a slow command of one lane never queues up in front of
+ * another lane's. Users of a lane are spread over its connections in turn and keep one connection each,
+ * so their own commands stay in order. Every command sent through {@link #commands} is counted while in flight
+ * and timed once answered.
+ */
+public class ConnectionLane {
+
+    @Getter private final String name;
+    private final RedisClient client;
+    private final int size;
+    private final Duration timeout;
+
+    private final Map<RedisCodec<?, ?>, List<StatefulRedisConnection<?, ?>>> pools = new HashMap<>();
+    private int handedOut;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Histogram latency = new Histogram();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param size    connections opened per codec at most
+     * @param timeout after which a command fails
+     */
+    public ConnectionLane(String name, RedisClient client, int size, Duration timeout) {
+        this.name = name;
+        this.client = client;
+        this.size = Math.max(1, size);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Hands out the next connection of the lane, opening it if the lane isn't full yet.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <V> RedisAsyncCommands<String, V> commands(RedisCodec<String, V> codec) {
+        List<StatefulRedisConnection<?, ?>> pool = pools.computeIfAbsent(codec, key -> new ArrayList<>());
+
+        StatefulRedisConnection<String, V> connection;
+        if (pool.size() < size) {
+            connection = connect(codec);
+            pool.add(connection);
+        } else {
+            connection = (StatefulRedisConnection<String, V>) pool.get(handedOut % pool.size());
+        }
+        handedOut++;
+
+        return track(connection.async());
+    }
+
+    /**
+     * Opens a connection of this lane for a single owner, which reports on it itself.
+     */
+    public <V> StatefulRedisConnection<String, V> connect(RedisCodec<String, V> codec) {
+        StatefulRedisConnection<String, V> connection = client.connect(codec);
+        connection.setTimeout(timeout);
+        return connection;
+    }
+
+    public <V> StatefulRedisPubSubConnection<String, V> connectPubSub(RedisCodec<String, V> codec) {
+        StatefulRedisPubSubConnection<String, V> connection = client.connectPubSub(codec);
+        connection.setTimeout(timeout);
+        return connection;
+    }
+
+    public void registerMetrics(NetworkMetrics metrics) {
+        metrics.lane(name, inFlight::get, latency, failed::sum);
+    }
+
+    // Every Redis command returns its future from the call itself, which is all that is needed to time it
+    @SuppressWarnings("unchecked")
+    private <V> RedisAsyncCommands<String, V> track(RedisAsyncCommands<String, V> commands) {
+        return (RedisAsyncCommands<String, V>) Proxy.newProxyInstance(
+                RedisAsyncCommands.class.getClassLoader(),
+                new Class<?>[]{RedisAsyncCommands.class},
+                (proxy, method, args) -> {
+                    long startedAt = System.nanoTime();
+
+                    Object result;
+                    try {
+                        result = method.invoke(commands, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+
+                    if (result instanceof RedisFuture<?> future) {
+                        inFlight.incrementAndGet();
+                        future.whenComplete((value, throwable) -> {
+                            inFlight.decrementAndGet();
+                            if (throwable != null) failed.increment();
+                            latency.record((System.nanoTime() - startedAt) / 1000);
+                        });
+                    }
+
+                    return result;
+                }
+        );
+    }
+
+}
@@ -0,0 +1,204 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.Getter;
+import net.voxelarc.allaychat.multiserver.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects publishes for a short window, or until the batch is full, and writes them to Redis
+ * as one pipelined flush instead of one write per packet.
+ */
+public class OutboundPublisher {
+
+    private final StatefulRedisConnection<String, byte[]> connection;
+    private final Command command;
+    private final long windowMicros;
+    private final int maxBatchSize;
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger(); // Written to Lettuce, not acknowledged by Redis yet
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AllayChat-Publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder publishedPackets = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final LongAdder totalFlushLatencyNanos = new LongAdder();
+    private final AtomicLong worstFlushLatencyNanos = new AtomicLong();
+
+    // From being queued to Redis answering, reported as the publish lane
+    @Getter private final Histogram latency = new Histogram();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param connection   a connection owned by this publisher, auto flushing is turned off on it
+     * @param windowMicros how long the first packet of a batch may wait for others, 0 flushes right away
+     * @param maxBatchSize flushes early once this many packets are waiting
+     */
+    public OutboundPublisher(StatefulRedisConnection<String, byte[]> connection, long windowMicros, int maxBatchSize) {
+        this(connection, Command.PUBLISH, windowMicros, maxBatchSize);
+    }
+
+    /**
+     * @param command what each queued packet is turned into, {@link Command#PUBLISH} for pub/sub
+     */
+    public OutboundPublisher(StatefulRedisConnection<String, byte[]> connection, Command command, long windowMicros, int maxBatchSize) {
+        this.connection = connection;
+        this.command = command;
+        this.windowMicros = Math.max(0, windowMicros);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+
+        connection.setAutoFlushCommands(false);
+    }
+
+    /**
+     * Queues a publish.
+     *
+     * @return completes with the number of subscribers that received the message
+     */
+    public CompletableFuture<Long> publish(String channel, byte[] payload) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        queue.add(new Pending(channel, payload, future, System.nanoTime()));
+
+        int size = queued.incrementAndGet();
+        if (size >= maxBatchSize || windowMicros == 0) {
+            scheduleFlush(0);
+        } else if (size == 1) {
+            scheduleFlush(windowMicros);
+        }
+
+        return future;
+    }
+
+    private void flush() {
+        List<Pending> batch = new ArrayList<>(Math.min(queued.get(), maxBatchSize));
+        Pending pending;
+        while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+            batch.add(pending);
+        }
+
+        if (batch.isEmpty()) return;
+        int remaining = queued.addAndGet(-batch.size());
+
+        RedisAsyncCommands<String, byte[]> async = connection.async();
+        inFlight.addAndGet(batch.size());
+        for (Pending entry : batch) {
+            command.send(async, entry.channel(), entry.payload()).whenComplete((receivers, throwable) -> {
+                inFlight.decrementAndGet();
+                latency.record((System.nanoTime() - entry.enqueuedAt()) / 1000);
+                if (throwable != null) {
+                    failed.increment();
+                    entry.future().completeExceptionally(throwable);
+                } else {
+                    entry.future().complete(receivers);
+                }
+            });
+        }
+        connection.flushCommands();
+
+        long latency = System.nanoTime() - batch.getFirst().enqueuedAt();
+        publishedPackets.add(batch.size());
+        flushes.increment();
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+        totalFlushLatencyNanos.add(latency);
+        worstFlushLatencyNanos.accumulateAndGet(latency, Math::max);
+
+        // Packets queued while we were draining would otherwise wait for the next publish to schedule a flush
+        if (remaining > 0) {
+            scheduleFlush(windowMicros);
+        }
+    }
+
+    private void scheduleFlush(long delayMicros) {
+        // Once closed, close() drains whatever is left itself
+        if (executor.isShutdown()) return;
+
+        try {
+            executor.schedule(this::flush, delayMicros, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    public Stats getStats() {
+        long flushCount = flushes.sum();
+        long packets = publishedPackets.sum();
+        return new Stats(
+                packets,
+                flushCount,
+                flushCount == 0 ? 0 : (double) packets / flushCount,
+                largestBatch.get(),
+                flushCount == 0 ? 0 : totalFlushLatencyNanos.sum() / 1_000_000D / flushCount,
+                worstFlushLatencyNanos.get() / 1_000_000D,
+                queued.get(),
+                inFlight.get()
+        );
+    }
+
+    /**
+     * Flushes everything still queued, waits up to the given time for Redis to acknowledge it and closes the connection.
+     */
+    public void close(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (Pending pending : queue) {
+            futures.add(pending.future());
+        }
+        while (!queue.isEmpty()) {
+            flush();
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {
+            // Nothing more we can do while shutting down
+        }
+
+        connection.close();
+    }
+
+    @FunctionalInterface
+    public interface Command {
+
+        Command PUBLISH = RedisAsyncCommands::publish;
+
+        /**
+         * @return completes with the number of servers that received the packet, if known
+         */
+        CompletionStage<Long> send(RedisAsyncCommands<String, byte[]> commands, String channel, byte[] payload);
+
+    }
+
+    public record Stats(long packets, long flushes, double averageBatchSize, long largestBatch,
+                        double averageFlushLatencyMillis, double worstFlushLatencyMillis, int queued, int inFlight) {
+    }
+
+    private record Pending(String channel, byte[] payload, CompletableFuture<Long> future, long enqueuedAt) {
+    }
+
+}
@@ -0,0 +1,45 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A Lua script run by digest, falling back to sending the source once Redis has forgotten it.
+ */
+public final class RedisScript {
+
+    private final String source;
+    private final String digest;
+
+    public RedisScript(String source) {
+        this.source = source;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            this.digest = HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    @SafeVarargs
+    public final <K, V, T> CompletableFuture<T> execute(RedisAsyncCommands<K, V> commands, ScriptOutputType type, K[] keys, V... args) {
+        return commands.<T>evalsha(digest, type, keys, args).toCompletableFuture().exceptionallyCompose(throwable -> {
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof RedisCommandExecutionException && cause.getMessage() != null
+                    && cause.getMessage().startsWith("NOSCRIPT")) {
+                return commands.<T>eval(source, type, keys, args).toCompletableFuture();
+            }
+
+            return CompletableFuture.failedFuture(cause);
+        });
+    }
+
+}
@@ -0,0 +1,109 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.transport.Transport;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends through an {@link OutboundPublisher} and receives over pub/sub, plus a {@link StreamTransport}
+ * reader when the publisher writes to streams.
+ */
+public class RedisTransport implements Transport {
+
+    private final OutboundPublisher publisher;
+    private final StatefulRedisPubSubConnection<String, byte[]> pubSubConnection;
+    @Nullable private final StreamTransport streams;
+    private final Logger logger;
+
+    /**
+     * @param streams an already started reader, delivering to the same receiver
+     */
+    public RedisTransport(OutboundPublisher publisher, StatefulRedisPubSubConnection<String, byte[]> pubSubConnection,
+                          @Nullable StreamTransport streams, BiConsumer<String, byte[]> receiver, Logger logger) {
+        this.publisher = publisher;
+        this.pubSubConnection = pubSubConnection;
+        this.streams = streams;
+        this.logger = logger;
+
+        pubSubConnection.addListener(new RedisPubSubAdapter<>() {
+            @Override
+            public void message(String channel, byte[] message) {
+                receiver.accept(channel, message);
+            }
+
+            @Override
+            public void subscribed(String channel, long count) {
+                logger.info("Successfully subscribed to channel: " + channel + " (total: " + count + ")");
+            }
+
+            @Override
+            public void unsubscribed(String channel, long count) {
+                logger.info("Unsubscribed from channel: " + channel + " (remaining: " + count + ")");
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(Collection<String> channels) {
+        pubSubConnection.async().subscribe(channels.toArray(String[]::new)).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                logger.log(Level.SEVERE, "Subscribe failed: " + throwable.getMessage(), throwable);
+            }
+        });
+    }
+
+    @Override
+    public void unsubscribe(Collection<String> channels) {
+        pubSubConnection.async().unsubscribe(channels.toArray(String[]::new)).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                logger.log(Level.WARNING, "Unsubscribe failed: " + throwable.getMessage(), throwable);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> publish(String channel, byte[] payload) {
+        return publisher.publish(channel, payload);
+    }
+
+    public OutboundPublisher.Stats getPublisherStats() {
+        return publisher.getStats();
+    }
+
+    @Override
+    public void registerMetrics(NetworkMetrics metrics) {
+        metrics.gauge("publisher_queued", "Packets waiting for the next publisher flush", () -> publisher.getStats().queued());
+        metrics.gauge("publisher_in_flight", "Publishes written to Redis and not acknowledged yet", () -> publisher.getStats().inFlight());
+        metrics.lane("publish", () -> publisher.getStats().queued() + publisher.getStats().inFlight(), publisher.getLatency(), publisher::failed);
+
+        if (streams != null) {
+            metrics.gauge("stream_lag_millis", "Age of the last stream entry when it was read", streams::lagMillis);
+            metrics.gauge("stream_skipped", "Stale low priority stream entries skipped", streams::skipped);
+        }
+    }
+
+    @Override
+    public void close(long timeout, TimeUnit unit) {
+        if (streams != null) streams.close();
+
+        publisher.close(timeout, unit);
+        pubSubConnection.close();
+
+        OutboundPublisher.Stats stats = publisher.getStats();
+        logger.info(String.format(Locale.ROOT,
+                "Published %d packets in %d flushes (avg batch %.1f, max %d), avg flush latency %.2f ms, worst %.2f ms",
+                stats.packets(), stats.flushes(), stats.averageBatchSize(), stats.largestBatch(),
+                stats.averageFlushLatencyMillis(), stats.worstFlushLatencyMillis()));
+    }
+
+}
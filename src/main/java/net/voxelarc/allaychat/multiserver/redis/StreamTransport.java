@@ -0,0 +1,228 @@
+package net.voxelarc.allaychat.multiserver.redis;
+
+import io.lettuce.core.*;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Carries packets over capped Redis Streams instead of pub/sub: one stream for the group and one inbox
+ * stream per server. Each server pulls batches at its own pace from a cursor it keeps itself, so a
+ * stalled server catches up afterwards instead of being dropped or disconnected by Redis, and a
+ * reconnect resumes right after the last handled entry. That holds for Lettuce's own reconnects as well
+ * as for a new transport taking over the {@link Cursors} of the one before.
+ */
+public class StreamTransport {
+
+    private static final String CHANNEL_FIELD = "c";
+    private static final String PAYLOAD_FIELD = "p";
+
+    // Inbox streams of servers that went away expire on their own
+    private static final long INBOX_TTL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+
+    private final StatefulRedisConnection<String, byte[]> connection;
+    private final Cursors cursors;
+    private final String groupStream;
+    @Getter private final String inboxStream;
+    private final int batchSize;
+    private final long staleMillis;
+    private final Predicate<String> lowPriority;
+    private final BiConsumer<String, byte[]> handler;
+    private final Logger logger;
+
+    private final LongAdder skipped = new LongAdder();
+    private volatile long lagMillis = 0;
+
+    private volatile boolean running = true;
+    private Thread reader;
+
+    /**
+     * @param connection  a connection owned by the reader, blocking reads would stall anything else on it
+     * @param cursors     where the last transport of this server stopped reading, updated as entries are handled
+     * @param staleMillis entries older than this are skipped if {@code lowPriority} accepts their channel
+     * @param handler     receives channel and payload, just like a pub/sub listener
+     */
+    public StreamTransport(StatefulRedisConnection<String, byte[]> connection, Cursors cursors, String group, String serverId,
+                           int batchSize, long staleMillis, Predicate<String> lowPriority,
+                           BiConsumer<String, byte[]> handler, Logger logger) {
+        this.connection = connection;
+        this.cursors = cursors;
+        this.groupStream = ChannelNames.stream(group);
+        this.inboxStream = ChannelNames.inboxStream(group, serverId);
+        this.batchSize = Math.max(1, batchSize);
+        this.staleMillis = staleMillis;
+        this.lowPriority = lowPriority;
+        this.handler = handler;
+        this.logger = logger;
+    }
+
+    /**
+     * Publishing side, for an {@link OutboundPublisher}. Group channels go to the group stream and inbox channels
+     * to the inbox stream of their server, both trimmed to roughly the given length.
+     * <p>
+     * An inbox entry only counts as received while its server holds a lease. A stream keeps whatever is added
+     * whether anybody reads it or not, so without the lease a packet for a crashed server would wait there unread
+     * instead of the router falling back to the broadcast channel. The entry is still added and expires with the
+     * stream, a server that only lost its lease for a moment may then see the packet twice.
+     *
+     * @param leaseKey server id -> the key that exists while that server is alive
+     */
+    public static OutboundPublisher.Command command(String group, long maxLength, long inboxMaxLength, Function<String, String> leaseKey) {
+        XAddArgs groupArgs = XAddArgs.Builder.maxlen(maxLength).approximateTrimming();
+        XAddArgs inboxArgs = XAddArgs.Builder.maxlen(inboxMaxLength).approximateTrimming();
+
+        return (commands, channel, payload) -> {
+            Map<String, byte[]> body = Map.of(CHANNEL_FIELD, channel.getBytes(StandardCharsets.UTF_8), PAYLOAD_FIELD, payload);
+
+            String owner = ChannelNames.inboxOwner(group, channel);
+            if (owner == null) {
+                return commands.xadd(ChannelNames.stream(group), groupArgs, body).thenApply(id -> 1L);
+            }
+
+            // Both go out in the same flush, the lease is only looked at once Redis answered
+            String stream = ChannelNames.inboxStream(group, owner);
+            CompletableFuture<Long> alive = commands.exists(leaseKey.apply(owner)).toCompletableFuture();
+            return commands.xadd(stream, inboxArgs, body).thenCompose(id -> {
+                // The first entry creates the stream, so the TTL can only be set after it. The publisher only
+                // flushes its own batches, a command sent from here has to be flushed by itself
+                commands.expire(stream, INBOX_TTL_SECONDS);
+                commands.flushCommands();
+                return alive;
+            }).thenApply(leases -> leases > 0 ? 1L : 0L);
+        };
+    }
+
+    public void start() {
+        reader = new Thread(this::read, "AllayChat-StreamReader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read() {
+        RedisCommands<String, byte[]> commands = connection.sync();
+
+        // Right after the last transport, or the current end on the first connect,
+        // resolved once so nothing added between two reads is missed
+        String groupCursor = cursors.group;
+        String inboxCursor = cursors.inbox;
+        XReadArgs args = XReadArgs.Builder.count(batchSize).block(1000);
+
+        while (running) {
+            try {
+                if (groupCursor == null) cursors.group = groupCursor = lastId(commands, groupStream);
+                if (inboxCursor == null) cursors.inbox = inboxCursor = lastId(commands, inboxStream);
+
+                List<StreamMessage<String, byte[]>> batch = commands.xread(args,
+                        XReadArgs.StreamOffset.from(groupStream, groupCursor),
+                        XReadArgs.StreamOffset.from(inboxStream, inboxCursor));
+                if (batch == null) continue;
+
+                for (StreamMessage<String, byte[]> message : batch) {
+                    // Closed halfway, whatever is left is the next transport's to read
+                    if (!running) return;
+                    handle(message);
+
+                    // Advanced per entry, a failure halfway resumes after the last handled one
+                    if (message.getStream().equals(groupStream)) {
+                        groupCursor = message.getId();
+                        cursors.group = groupCursor;
+                    } else {
+                        inboxCursor = message.getId();
+                        cursors.inbox = inboxCursor;
+                    }
+                }
+            } catch (RedisException e) {
+                if (!running) return;
+
+                // Lettuce reconnects by itself, the cursors carry over
+                logger.log(Level.WARNING, "Stream read failed, retrying: " + e.getMessage());
+                sleep();
+            }
+        }
+    }
+
+    private void handle(StreamMessage<String, byte[]> message) {
+        byte[] channelBytes = message.getBody().get(CHANNEL_FIELD);
+        byte[] payload = message.getBody().get(PAYLOAD_FIELD);
+        if (channelBytes == null || payload == null) return;
+
+        String channel = new String(channelBytes, StandardCharsets.UTF_8);
+        long age = System.currentTimeMillis() - timestamp(message.getId());
+        lagMillis = Math.max(0, age);
+
+        // Far behind, sounds and titles from a while ago would only confuse players
+        if (age > staleMillis && lowPriority.test(channel)) {
+            skipped.increment();
+            return;
+        }
+
+        try {
+            handler.accept(channel, payload);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not handle stream entry " + message.getId() + " on " + channel, e);
+        }
+    }
+
+    private static String lastId(RedisCommands<String, byte[]> commands, String stream) {
+        List<StreamMessage<String, byte[]>> last = commands.xrevrange(stream, Range.unbounded(), Limit.from(1));
+        return last.isEmpty() ? "0-0" : last.getFirst().getId();
+    }
+
+    private static long timestamp(String id) {
+        int separator = id.indexOf('-');
+        return Long.parseLong(separator < 0 ? id : id.substring(0, separator));
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return age of the last entry read when it was read, against our own clock
+     */
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Stops the reader and closes its connection, which also ends a read blocking on it.
+     */
+    public void close() {
+        running = false;
+        if (reader != null) reader.interrupt();
+        connection.close();
+    }
+
+    /**
+     * The last entry read from each stream, kept by the module so a reconnect resumes where the previous
+     * transport stopped. The ids of a server change on every start, so nothing needs to outlive the module.
+     */
+    public static final class Cursors {
+
+        private volatile String group;
+        private volatile String inbox;
+
+    }
+
+}
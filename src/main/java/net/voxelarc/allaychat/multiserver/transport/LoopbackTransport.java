@@ -0,0 +1,75 @@
+package net.voxelarc.allaychat.multiserver.transport;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Delivers between transports sharing a {@link Hub} inside one JVM, for tests and the load harness.
+ * Every transport gets its own delivery thread, like a connection of its own would.
+ */
+public class LoopbackTransport implements Transport {
+
+    private final Hub hub;
+    private final BiConsumer<String, byte[]> receiver;
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AllayChat-Loopback");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LoopbackTransport(Hub hub, BiConsumer<String, byte[]> receiver) {
+        this.hub = hub;
+        this.receiver = receiver;
+        hub.transports.add(this);
+    }
+
+    @Override
+    public void subscribe(Collection<String> channels) {
+        this.channels.addAll(channels);
+    }
+
+    @Override
+    public void unsubscribe(Collection<String> channels) {
+        this.channels.removeAll(channels);
+    }
+
+    @Override
+    public CompletableFuture<Long> publish(String channel, byte[] payload) {
+        long receivers = 0;
+        for (LoopbackTransport transport : hub.transports) {
+            if (transport.channels.contains(channel) && transport.deliver(channel, payload)) receivers++;
+        }
+        return CompletableFuture.completedFuture(receivers);
+    }
+
+    private boolean deliver(String channel, byte[] payload) {
+        try {
+            executor.execute(() -> receiver.accept(channel, payload));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close(long timeout, TimeUnit unit) {
+        hub.transports.remove(this);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The shared medium, one per simulated group.
+     */
+    public static class Hub {
+        private final Set<LoopbackTransport> transports = new CopyOnWriteArraySet<>();
+    }
+
+}
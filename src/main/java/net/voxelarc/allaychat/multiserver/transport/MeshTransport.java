@@ -0,0 +1,502 @@
+package net.voxelarc.allaychat.multiserver.transport;
+
+import lombok.Getter;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Sends packets straight to the other servers of the group over TCP, one hop instead of two through Redis.
+ * Every server listens on a port and keeps one outgoing connection per peer, peers are whatever
+ * {@link #updatePeers(Map)} was last told. Inbox channels go to their owner only, everything else to all peers
+ * and back to ourselves, the same fan out pub/sub gives.
+ * <p>
+ * Frames on the wire are {@code int length | short channel length | channel | payload}.
+ * A single selector thread does all socket work, publishers only append to a peer's queue.
+ * <p>
+ * Every connection starts with a hello frame on the empty channel: the sender's clock and an HMAC of it keyed with
+ * the group and the shared secret. Connections that don't open with a valid one are closed before anything they
+ * send is delivered. This keeps strangers out of the group, it does not encrypt anything.
+ */
+public class MeshTransport implements Transport {
+
+    private static final int MAX_FRAME_SIZE = 16 << 20;
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+    private static final int MAX_GATHER = 64;
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int HELLO_SIZE = 8 + 32;
+    private static final long HELLO_MAX_AGE = TimeUnit.MINUTES.toMillis(2); // Covers clock skew between servers
+
+    private final String group;
+    private final String serverId;
+    private final long maxQueuedBytes;
+    private final BiConsumer<String, byte[]> receiver;
+    private final Logger logger;
+    private final SecretKeySpec helloKey;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    @Getter private final InetSocketAddress localAddress;
+
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>(); // Server id -> outgoing connection
+    private final Set<Inbound> inbounds = new HashSet<>(); // Incoming connections, selector thread only
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Run on the selector thread
+
+    private final LongAdder dropped = new LongAdder();
+    private final Thread loop;
+    private volatile boolean running = true;
+
+    /**
+     * @param bind           where to listen, port 0 picks a free one
+     * @param secret         shared by every server of the group, may be empty while the port is only reachable locally
+     * @param maxQueuedBytes packets to a peer that has fallen this far behind are dropped
+     * @param receiver       receives channel and payload on the selector thread, keep it short
+     */
+    public MeshTransport(String group, String serverId, InetSocketAddress bind, String secret, long maxQueuedBytes,
+                         BiConsumer<String, byte[]> receiver, Logger logger) throws IOException {
+        this.group = group;
+        this.serverId = serverId;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.receiver = receiver;
+        this.logger = logger;
+        this.helloKey = new SecretKeySpec((group + '\0' + secret).getBytes(StandardCharsets.UTF_8), HMAC);
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(bind);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.localAddress = (InetSocketAddress) server.getLocalAddress();
+
+        loop = new Thread(this::run, "AllayChat-Mesh");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    @Override
+    public void subscribe(Collection<String> channels) {
+        this.channels.addAll(channels);
+    }
+
+    @Override
+    public void unsubscribe(Collection<String> channels) {
+        this.channels.removeAll(channels);
+    }
+
+    @Override
+    public CompletableFuture<Long> publish(String channel, byte[] payload) {
+        ByteBuffer frame = encode(channel, payload);
+
+        String owner = ChannelNames.inboxOwner(group, channel);
+        if (owner != null) {
+            if (owner.equals(serverId)) return CompletableFuture.completedFuture(deliverLocally(channel, payload) ? 1L : 0L);
+
+            // Nothing is queued for a peer that isn't connected yet, the caller falls back to a broadcast instead
+            Peer peer = peers.get(owner);
+            return CompletableFuture.completedFuture(peer != null && peer.connected && peer.enqueue(frame.duplicate()) ? 1L : 0L);
+        }
+
+        // Peers still connecting get the frame once they are, but only connected ones count as receivers
+        long receivers = deliverLocally(channel, payload) ? 1 : 0;
+        for (Peer peer : peers.values()) {
+            if (peer.enqueue(frame.duplicate()) && peer.connected) receivers++;
+        }
+
+        return CompletableFuture.completedFuture(receivers);
+    }
+
+    /**
+     * Connects to new peers and drops the ones no longer listed. Our own entry is ignored.
+     *
+     * @param addresses server id -> host:port
+     */
+    public void updatePeers(Map<String, String> addresses) {
+        Map<String, InetSocketAddress> resolved = new HashMap<>();
+        addresses.forEach((id, address) -> {
+            if (id.equals(serverId)) return;
+
+            int separator = address.lastIndexOf(':');
+            if (separator < 0) return;
+
+            try {
+                resolved.put(id, new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Ignoring malformed mesh address of server " + id + ": " + address);
+            }
+        });
+
+        submit(() -> syncPeers(resolved));
+    }
+
+    private boolean deliverLocally(String channel, byte[] payload) {
+        if (!channels.contains(channel)) return false;
+
+        // Our own packets come back on the selector thread, like everyone else's
+        submit(() -> deliver(channel, payload));
+        return true;
+    }
+
+    private void deliver(String channel, byte[] payload) {
+        try {
+            receiver.accept(channel, payload);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not handle mesh packet on " + channel, e);
+        }
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private static ByteBuffer encode(String channel, byte[] payload) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + 2 + channelBytes.length + payload.length);
+        frame.putInt(2 + channelBytes.length + payload.length);
+        frame.putShort((short) channelBytes.length);
+        frame.put(channelBytes);
+        frame.put(payload);
+        return frame.flip();
+    }
+
+    private ByteBuffer hello() {
+        long now = System.currentTimeMillis();
+        return encode("", ByteBuffer.allocate(HELLO_SIZE).putLong(now).put(helloMac(now)).array());
+    }
+
+    private boolean verifyHello(byte[] payload) {
+        if (payload.length != HELLO_SIZE) return false;
+
+        ByteBuffer hello = ByteBuffer.wrap(payload);
+        long sentAt = hello.getLong();
+        byte[] mac = new byte[HELLO_SIZE - 8];
+        hello.get(mac);
+
+        return Math.abs(System.currentTimeMillis() - sentAt) <= HELLO_MAX_AGE && MessageDigest.isEqual(mac, helloMac(sentAt));
+    }
+
+    private byte[] helloMac(long time) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(helloKey);
+            return mac.doFinal(ByteBuffer.allocate(8).putLong(time).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.attachment() instanceof Peer peer) {
+                        if (key.isConnectable()) peer.finishConnect();
+                        if (key.isValid() && key.isWritable()) peer.flush();
+                    } else if (key.attachment() instanceof Inbound inbound && key.isReadable()) {
+                        inbound.read();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) logger.log(Level.WARNING, "Mesh selector failed", e);
+            }
+        }
+
+        peers.values().forEach(Peer::close);
+        List.copyOf(inbounds).forEach(Inbound::close);
+        try {
+            selector.close();
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socket = server.accept();
+        if (socket == null) return;
+
+        socket.configureBlocking(false);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Inbound inbound = new Inbound(socket);
+        inbounds.add(inbound);
+        socket.register(selector, SelectionKey.OP_READ, inbound);
+    }
+
+    private void syncPeers(Map<String, InetSocketAddress> addresses) {
+        peers.entrySet().removeIf(entry -> {
+            InetSocketAddress address = addresses.get(entry.getKey());
+            if (address != null && address.equals(entry.getValue().address)) return false;
+
+            entry.getValue().close();
+            return true;
+        });
+
+        addresses.forEach((id, address) -> {
+            if (peers.containsKey(id)) return;
+
+            try {
+                peers.put(id, new Peer(id, address));
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not connect to mesh peer " + id + " at " + address, e);
+            }
+        });
+    }
+
+    @Override
+    public void registerMetrics(NetworkMetrics metrics) {
+        metrics.gauge("mesh_peers", "Mesh peers with an open connection", () -> peers.values().stream().filter(peer -> peer.connected).count());
+        metrics.gauge("mesh_queued_bytes", "Bytes waiting to be written to mesh peers", () -> peers.values().stream().mapToLong(peer -> peer.queuedBytes.get()).sum());
+        metrics.gauge("mesh_dropped", "Packets dropped because a mesh peer fell too far behind", dropped::sum);
+    }
+
+    @Override
+    public void close(long timeout, TimeUnit unit) {
+        // Give the selector a chance to write out what was published last, the clear packet on shutdown in particular
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (System.nanoTime() < deadline && peers.values().stream().anyMatch(peer -> peer.connected && peer.queuedBytes.get() > 0)) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Outgoing connection, only ever written to.
+     */
+    private final class Peer {
+
+        private final String id;
+        private final InetSocketAddress address;
+        private final SocketChannel socket;
+        private final SelectionKey key;
+
+        private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean connected;
+        private volatile boolean closed;
+
+        private Peer(String id, InetSocketAddress address) throws IOException {
+            this.id = id;
+            this.address = address;
+            this.socket = SocketChannel.open();
+
+            try {
+                socket.configureBlocking(false);
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                ByteBuffer hello = hello(); // Always the first frame written
+                queue.add(hello);
+                queuedBytes.addAndGet(hello.remaining());
+
+                connected = socket.connect(address);
+                key = socket.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private boolean enqueue(ByteBuffer frame) {
+            if (closed) return false;
+
+            if (queuedBytes.addAndGet(frame.remaining()) > maxQueuedBytes) {
+                queuedBytes.addAndGet(-frame.remaining());
+                dropped.increment();
+                return false;
+            }
+
+            queue.add(frame);
+            if (flushScheduled.compareAndSet(false, true)) submit(this::flush);
+            return true;
+        }
+
+        private void finishConnect() {
+            try {
+                connected = socket.finishConnect();
+                if (!connected) return;
+
+                key.interestOps(0);
+                flush();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not connect to mesh peer " + id + " at " + address, e);
+                remove();
+            }
+        }
+
+        // Selector thread only
+        private void flush() {
+            if (closed || !connected) return;
+
+            try {
+                while (true) {
+                    ByteBuffer[] batch = queue.stream().limit(MAX_GATHER).toArray(ByteBuffer[]::new);
+                    if (batch.length == 0) {
+                        flushScheduled.set(false);
+
+                        // Something may have been queued between the last look and resetting the flag
+                        if (queue.isEmpty() || !flushScheduled.compareAndSet(false, true)) break;
+                        continue;
+                    }
+
+                    long written = socket.write(batch);
+                    queuedBytes.addAndGet(-written);
+
+                    for (ByteBuffer buffer : batch) {
+                        if (buffer.hasRemaining()) break;
+                        queue.poll();
+                    }
+
+                    // Socket buffer is full, continue once the selector says it's writable again
+                    if (batch[batch.length - 1].hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                key.interestOps(0);
+            } catch (IOException | CancelledKeyException e) {
+                logger.log(Level.FINE, "Lost connection to mesh peer " + id, e);
+                remove();
+            }
+        }
+
+        // Reconnected on the next peer update if the server is still listed
+        private void remove() {
+            close();
+            peers.remove(id, this);
+        }
+
+        private void close() {
+            closed = true;
+            connected = false;
+            key.cancel();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+    /**
+     * Incoming connection, only ever read from.
+     */
+    private final class Inbound {
+
+        private final SocketChannel socket;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean authenticated;
+
+        private Inbound(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        private void read() {
+            try {
+                if (socket.read(buffer) < 0) {
+                    close();
+                    return;
+                }
+
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int length = buffer.getInt(buffer.position());
+                    int maxLength = authenticated ? MAX_FRAME_SIZE : 2 + HELLO_SIZE;
+                    if (length < 2 || length > maxLength) throw new IOException("Invalid frame length " + length);
+
+                    if (buffer.remaining() < 4 + length) {
+                        if (buffer.capacity() < 4 + length) {
+                            buffer = ByteBuffer.allocate(4 + length).put(buffer).flip();
+                        }
+                        break;
+                    }
+
+                    buffer.getInt();
+                    byte[] channel = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(channel);
+                    byte[] payload = new byte[length - 2 - channel.length];
+                    buffer.get(payload);
+
+                    if (!authenticated) {
+                        if (channel.length != 0 || !verifyHello(payload)) throw new IOException("Invalid mesh hello, is mesh.secret the same on both servers?");
+                        authenticated = true;
+                        continue;
+                    }
+
+                    String channelName = new String(channel, StandardCharsets.UTF_8);
+                    if (channels.contains(channelName)) deliver(channelName, payload);
+                }
+                buffer.compact();
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.FINE, "Dropping mesh connection from " + remoteAddress(), e);
+                close();
+            }
+        }
+
+        private void close() {
+            inbounds.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private Object remoteAddress() {
+            try {
+                return socket.getRemoteAddress();
+            } catch (IOException e) {
+                return "an unknown peer";
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,286 @@
+package net.voxelarc.allaychat.multiserver.transport;
+
+import com.google.gson.JsonParseException;
+import net.voxelarc.allaychat.multiserver.MultiServerModule;
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodecException;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.packet.*;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Everything between the packets of {@link MultiServerModule} and the transport: which channel a packet is published
+ * on, handling our own packets right away and dropping their echo, routing player targeted packets to the inbox of the
+ * player's server and falling back to the broadcast channels when that fails, and decoding what arrives.
+ * <p>
+ * What a packet does and where players are is left to the {@link Host}. Only constants are used from the module,
+ * which javac inlines, so the load test runs this very class without Bukkit or AllayChat on the classpath.
+ */
+public class PacketRouter {
+
+    public static final List<String> CHANNELS = List.of(
+            MultiServerModule.MESSAGE_CHANNEL, MultiServerModule.INVENTORY_CHANNEL, MultiServerModule.BROADCAST_CHANNEL,
+            MultiServerModule.DM_CHANNEL, MultiServerModule.PLAY_SOUND_CHANNEL, MultiServerModule.TITLE_CHANNEL,
+            MultiServerModule.ACTIONBAR_CHANNEL, MultiServerModule.SEND_MESSAGE_CHANNEL, MultiServerModule.SPY_CHANNEL,
+            MultiServerModule.PLAYER_CLEAR_CHANNEL, MultiServerModule.PLAYER_JOIN_CHANNEL, MultiServerModule.PLAYER_QUIT_CHANNEL,
+            MultiServerModule.REPLY_CHANNEL, MultiServerModule.MUTE_CHANNEL, MultiServerModule.MENTION_CHANNEL
+    );
+
+    // Packet classes to fall back on when a server still publishing JSON sends on these channels
+    public static final Map<String, Class<?>> LEGACY_PACKET_TYPES = Map.ofEntries(
+            Map.entry(MultiServerModule.MESSAGE_CHANNEL, MessagePacket.class),
+            Map.entry(MultiServerModule.INVENTORY_CHANNEL, InventoryPacket.class),
+            Map.entry(MultiServerModule.PLAY_SOUND_CHANNEL, SoundPacket.class),
+            Map.entry(MultiServerModule.TITLE_CHANNEL, TitlePacket.class),
+            Map.entry(MultiServerModule.ACTIONBAR_CHANNEL, ActionbarPacket.class),
+            Map.entry(MultiServerModule.SEND_MESSAGE_CHANNEL, SendMessagePacket.class),
+            Map.entry(MultiServerModule.BROADCAST_CHANNEL, BroadcastPacket.class),
+            Map.entry(MultiServerModule.PLAYER_JOIN_CHANNEL, JoinPacket.class),
+            Map.entry(MultiServerModule.PLAYER_QUIT_CHANNEL, QuitPacket.class),
+            Map.entry(MultiServerModule.REPLY_CHANNEL, SetLastReplyPacket.class),
+            Map.entry(MultiServerModule.MUTE_CHANNEL, MutePacket.class),
+            Map.entry(MultiServerModule.MENTION_CHANNEL, MentionPacket.class),
+            Map.entry(MultiServerModule.SPY_CHANNEL, SpyMessagePacket.class),
+            Map.entry(MultiServerModule.DM_CHANNEL, PrivateMessagePacket.class),
+            Map.entry(MultiServerModule.PLAYER_CLEAR_CHANNEL, ClearPacket.class)
+    );
+
+    // Broadcast channels to fall back on when a player targeted packet can't be routed to its server
+    public static final Map<Class<?>, String> FALLBACK_CHANNELS = Map.of(
+            SoundPacket.class, MultiServerModule.PLAY_SOUND_CHANNEL,
+            TitlePacket.class, MultiServerModule.TITLE_CHANNEL,
+            ActionbarPacket.class, MultiServerModule.ACTIONBAR_CHANNEL,
+            SendMessagePacket.class, MultiServerModule.SEND_MESSAGE_CHANNEL,
+            TemplateMessagePacket.class, MultiServerModule.SEND_MESSAGE_CHANNEL,
+            MentionPacket.class, MultiServerModule.MENTION_CHANNEL,
+            PrivateMessagePacket.class, MultiServerModule.DM_CHANNEL,
+            DirectMessagePacket.class, MultiServerModule.DM_CHANNEL
+    );
+
+    private final String group;
+    private final String serverId;
+    private final String inbox;
+    private final PacketCodec codec;
+    private final Host host;
+    private final NetworkMetrics metrics;
+    private final Logger logger;
+
+    // Only binary frames say who sent them, in JSON mode our own packets still reach us through the transport
+    private final boolean localFirst;
+    private final LongAdder skippedEchoes = new LongAdder();
+
+    private volatile Transport transport;
+    private volatile Set<String> ignoredChannels = Set.of();
+
+    public PacketRouter(String group, String serverId, PacketCodec codec, Host host, NetworkMetrics metrics, Logger logger) {
+        this.group = group;
+        this.serverId = serverId;
+        this.inbox = ChannelNames.inbox(group, serverId);
+        this.codec = codec;
+        this.host = host;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.localFirst = codec.getFormat() == PacketFormat.BINARY;
+    }
+
+    /**
+     * Packets published while there is no transport are handled here only, before connecting nobody else can have
+     * caused them but the console, and a server running local only has nobody else to tell.
+     */
+    public void setTransport(@Nullable Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Drops whatever arrives on these channels from now on, replacing the channels given before.
+     * For channels a transport delivers whether they are subscribed or not.
+     */
+    public void ignore(Set<String> channels) {
+        this.ignoredChannels = Set.copyOf(channels);
+    }
+
+    /**
+     * @return the channel only this server listens on
+     */
+    public String inboxChannel() {
+        return inbox;
+    }
+
+    public long skippedEchoes() {
+        return skippedEchoes.sum();
+    }
+
+    /**
+     * Publishes to every server of the group. Called on any thread.
+     */
+    public void publish(String channel, Object packet) {
+        boolean connected = transport != null;
+        send(publishChannel(channel), codec.encode(group, packet));
+
+        // Players here see it right away instead of after a round trip, the echo is dropped in accept
+        if (localFirst || !connected) handleLocally(channel, packet);
+    }
+
+    /**
+     * Sends a packet only to the server its target player is on, falling back to the broadcast channel
+     * when the route is unknown or nobody is listening on that server's inbox anymore.
+     */
+    public void publishTo(String channel, TargetedPacket packet) {
+        String playerName = packet.targetPlayer();
+        String route = host.routeOf(playerName);
+        if (route == null) {
+            publish(channel, packet);
+            return;
+        }
+
+        if (route.equals(serverId)) {
+            if (host.isHere(playerName)) {
+                handleLocally(channel, packet);
+                return;
+            }
+
+            // They left, our own inbox would only bounce it back to the broadcast channel a round trip later
+            host.removeRoute(playerName, route);
+            publish(channel, packet);
+            return;
+        }
+
+        // Inboxes are only read by servers that understand binary frames, whatever our publish format is
+        send(ChannelNames.inbox(group, route), codec.encodeBinary(group, packet)).thenAccept(receivers -> {
+            if (receivers > 0) return;
+
+            host.removeRoute(playerName, route);
+            publish(channel, packet);
+        });
+    }
+
+    /**
+     * Publishes an encoded packet as is.
+     *
+     * @return completes with the number of servers it was handed to
+     */
+    public CompletableFuture<Long> send(String channel, byte[] payload) {
+        Transport transport = this.transport;
+        if (transport == null) return CompletableFuture.completedFuture(0L);
+
+        metrics.recordPublished(channel, payload.length);
+        return transport.publish(channel, payload);
+    }
+
+    /**
+     * Called by the transport on its I/O thread, before anything is decoded.
+     *
+     * @return whether the packet should be decoded and handled, false for our own echo and ignored channels
+     */
+    public boolean accept(String channel, byte[] message) {
+        if (localFirst && codec.isOwn(message)) {
+            skippedEchoes.increment();
+            return false;
+        }
+
+        return !ignoredChannels.contains(channel);
+    }
+
+    /**
+     * @return null for packets of other groups and malformed ones
+     */
+    @Nullable
+    public Frame decode(String channel, byte[] message) {
+        if (!codec.belongsTo(message, group)) return null;
+        metrics.recordReceived(channel, message.length);
+
+        long decodeStart = System.nanoTime();
+        Frame frame;
+        try {
+            frame = codec.decode(message, LEGACY_PACKET_TYPES.get(channel));
+        } catch (PacketCodecException | JsonParseException e) {
+            metrics.recordMalformed();
+            logger.log(Level.WARNING, "Dropping malformed packet on channel " + channel + ": " + e.getMessage());
+            return null;
+        }
+
+        if (frame.packet() == null) return null;
+
+        metrics.recordDecode(frame.packet().getClass(), System.nanoTime() - decodeStart);
+        return frame;
+    }
+
+    /**
+     * Hands a received packet to the host, unless it came through our inbox for a player who isn't here anymore.
+     */
+    public void handle(String channel, Frame frame) {
+        Object decoded = frame.packet();
+        if (frame.origin() != null) metrics.recordDelivery(host.serverName(frame.origin().toString()), frame.sentAt());
+
+        // The route was stale, let every server have a look instead
+        if (decoded instanceof TargetedPacket targeted && channel.equals(inbox) && !host.isHere(targeted.targetPlayer())) {
+            host.removeRoute(targeted.targetPlayer(), serverId);
+            publish(FALLBACK_CHANNELS.get(decoded.getClass()), decoded);
+            return;
+        }
+
+        long handleStart = System.nanoTime();
+        host.handle(channel, decoded);
+        metrics.recordHandle(decoded.getClass(), System.nanoTime() - handleStart);
+    }
+
+    private void handleLocally(String channel, Object packet) {
+        long handleStart = System.nanoTime();
+        try {
+            host.handle(channel, packet);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not handle own packet on channel " + channel, e);
+        }
+        metrics.recordHandle(packet.getClass(), System.nanoTime() - handleStart);
+    }
+
+    private String publishChannel(String channel) {
+        // JSON must stay on the global channels, servers predating the binary codec only listen there
+        return codec.getFormat() == PacketFormat.JSON ? channel : ChannelNames.scoped(group, channel);
+    }
+
+    /**
+     * What the router needs to know about players and packets, from the module or the load test.
+     */
+    public interface Host {
+
+        /**
+         * @return the id of the server the player is on, or null if unknown
+         */
+        @Nullable
+        String routeOf(String playerName);
+
+        /**
+         * Forgets the player's route, as long as it still points at that server.
+         */
+        void removeRoute(String playerName, String serverId);
+
+        /**
+         * @return whether the player is online on this server
+         */
+        boolean isHere(String playerName);
+
+        /**
+         * Does whatever the packet is for. Called on a dispatcher thread, or on the publishing one for our own packets.
+         */
+        void handle(String channel, Object packet);
+
+        /**
+         * @return the name metrics label the server with this id by
+         */
+        String serverName(String serverId);
+
+    }
+
+}
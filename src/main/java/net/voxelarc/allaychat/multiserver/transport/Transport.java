@@ -0,0 +1,39 @@
+package net.voxelarc.allaychat.multiserver.transport;
+
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves encoded packets between the servers of a group. Channels are the same names the module has always
+ * used on Redis pub/sub, inbox channels address a single server. Received packets go to the receiver the
+ * transport was created with, on a thread of the transport's choosing.
+ */
+public interface Transport {
+
+    /**
+     * Starts delivering packets published on these channels, in addition to any subscribed before.
+     */
+    void subscribe(Collection<String> channels);
+
+    /**
+     * Stops delivering packets published on these channels. Packets already on their way may still arrive.
+     */
+    void unsubscribe(Collection<String> channels);
+
+    /**
+     * @return completes with the number of servers the packet was handed to, 0 meaning nobody will see it
+     */
+    CompletableFuture<Long> publish(String channel, byte[] payload);
+
+    default void registerMetrics(NetworkMetrics metrics) {
+    }
+
+    /**
+     * Sends whatever is still queued, waiting at most the given time, and releases all resources.
+     */
+    void close(long timeout, TimeUnit unit);
+
+}
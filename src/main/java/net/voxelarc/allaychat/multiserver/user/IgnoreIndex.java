@@ -0,0 +1,77 @@
+package net.voxelarc.allaychat.multiserver.user;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse index of local ignore lists, mapping a sender name to the local players who ignore them.
+ * Network chat delivery only needs to exclude that (usually empty) set instead of asking every viewer.
+ */
+public class IgnoreIndex {
+
+    // Sender name -> local viewers ignoring that sender
+    private final Map<String, Set<UUID>> ignoredBy = new ConcurrentHashMap<>();
+
+    // Viewer -> the ignore list we last indexed for them
+    private final Map<UUID, Set<String>> indexed = new ConcurrentHashMap<>();
+
+    /**
+     * @return the local viewers that ignore the sender, never null
+     */
+    public Set<UUID> getIgnoring(String senderName) {
+        Set<UUID> viewers = ignoredBy.get(senderName);
+        return viewers == null ? Collections.emptySet() : viewers;
+    }
+
+    /**
+     * Brings a viewer's entries in line with their current ignore list, touching only what changed.
+     */
+    public void update(UUID viewer, Collection<String> ignoredPlayers) {
+        Set<String> previous = indexed.getOrDefault(viewer, Collections.emptySet());
+        if (previous.size() == ignoredPlayers.size() && previous.containsAll(ignoredPlayers)) return;
+
+        Set<String> current = Set.copyOf(ignoredPlayers);
+        for (String name : previous) {
+            if (!current.contains(name)) unlink(name, viewer);
+        }
+
+        for (String name : current) {
+            if (!previous.contains(name)) {
+                ignoredBy.computeIfAbsent(name, key -> ConcurrentHashMap.newKeySet()).add(viewer);
+            }
+        }
+
+        if (current.isEmpty()) {
+            indexed.remove(viewer);
+        } else {
+            indexed.put(viewer, current);
+        }
+    }
+
+    /**
+     * Drops every entry of a viewer, e.g. when their user data is unloaded.
+     */
+    public void remove(UUID viewer) {
+        Set<String> previous = indexed.remove(viewer);
+        if (previous == null) return;
+
+        for (String name : previous) {
+            unlink(name, viewer);
+        }
+    }
+
+    /**
+     * @return the viewers that currently have entries
+     */
+    public Set<UUID> getViewers() {
+        return Collections.unmodifiableSet(indexed.keySet());
+    }
+
+    private void unlink(String name, UUID viewer) {
+        ignoredBy.computeIfPresent(name, (key, viewers) -> {
+            viewers.remove(viewer);
+            return viewers.isEmpty() ? null : viewers;
+        });
+    }
+
+}
@@ -0,0 +1,35 @@
+package net.voxelarc.allaychat.multiserver.user;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The players online here with social spy turned on, so spy copies go straight to them
+ * instead of scanning every loaded user, and the spy channel can be left alone while there are none.
+ */
+public class SpyIndex {
+
+    private final Set<UUID> spies = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @return whether this changed the index
+     */
+    public boolean update(UUID player, boolean spyEnabled) {
+        return spyEnabled ? spies.add(player) : spies.remove(player);
+    }
+
+    public boolean remove(UUID player) {
+        return spies.remove(player);
+    }
+
+    public Set<UUID> getSpies() {
+        return Collections.unmodifiableSet(spies);
+    }
+
+    public boolean isEmpty() {
+        return spies.isEmpty();
+    }
+
+}
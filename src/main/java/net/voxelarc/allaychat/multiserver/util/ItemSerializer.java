@@ -1,14 +1,156 @@
 package net.voxelarc.allaychat.multiserver.util;
 
+import net.voxelarc.allaychat.multiserver.codec.PacketCodecException;
+import net.voxelarc.allaychat.multiserver.codec.PacketReader;
+import net.voxelarc.allaychat.multiserver.codec.PacketWriter;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
 
 import java.io.*;
 import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class ItemSerializer {
 
+    private static final int FLAG_DEFLATED = 1;
+
+    /**
+     * Serializes items to raw bytes: a flags byte, then the slot count and each slot's item bytes,
+     * length-prefixed with an empty slot taking a single byte. Optionally deflated after the flags.
+     */
+    public static byte[] itemStackArrayToBytes(ItemStack[] items, boolean compress) {
+        byte[][] slots = new byte[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            ItemStack item = items[i];
+            if (item != null && !item.isEmpty()) slots[i] = item.serializeAsBytes();
+        }
+
+        return encodeSlots(slots, compress);
+    }
+
+    /**
+     * @param maxRawLength how large the slots may be once inflated, the data comes from other servers
+     */
+    public static ItemStack[] itemStackArrayFromBytes(byte[] data, int maxRawLength) {
+        byte[][] slots = decodeSlots(data, maxRawLength);
+        ItemStack[] items = new ItemStack[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) items[i] = ItemStack.deserializeBytes(slots[i]);
+        }
+
+        return items;
+    }
+
+    /**
+     * Frames already serialized item bytes, null entries being empty slots.
+     */
+    public static byte[] encodeSlots(byte[][] slots, boolean compress) {
+        PacketWriter body = new PacketWriter(64 * slots.length);
+        body.writeVarInt(slots.length);
+        for (byte[] slot : slots) {
+            body.writeBytes(slot);
+        }
+
+        PacketWriter writer = new PacketWriter(body.size() + 1);
+        if (compress) {
+            writer.writeByte(FLAG_DEFLATED);
+            writer.writeVarInt(body.size());
+
+            byte[] raw = body.toByteArray();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+
+                byte[] chunk = new byte[Math.max(64, raw.length / 2)];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(chunk);
+                    writer.writeRaw(chunk, 0, length);
+                }
+            } finally {
+                deflater.end();
+            }
+        } else {
+            writer.writeByte(0);
+            body.writeTo(writer);
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param maxRawLength how large the slots may be once inflated, the length is read from the data itself
+     */
+    public static byte[][] decodeSlots(byte[] data, int maxRawLength) {
+        PacketReader reader = new PacketReader(data);
+        int flags = reader.readByte();
+
+        if ((flags & FLAG_DEFLATED) != 0) {
+            int rawLength = reader.readVarInt();
+            if (rawLength < 0 || rawLength > maxRawLength) {
+                throw new PacketCodecException("Item data too large: " + rawLength + " bytes, at most " + maxRawLength + " allowed");
+            }
+            byte[] raw = new byte[rawLength];
+
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, reader.position(), reader.remaining());
+                int read = 0;
+                while (read < rawLength && !inflater.finished()) {
+                    int length = inflater.inflate(raw, read, rawLength - read);
+                    if (length == 0 && inflater.needsInput()) break;
+                    read += length;
+                }
+
+                if (read != rawLength) throw new PacketCodecException("Truncated item data");
+            } catch (DataFormatException e) {
+                throw new PacketCodecException("Corrupt item data", e);
+            } finally {
+                inflater.end();
+            }
+
+            reader = new PacketReader(raw);
+        }
+
+        int size = reader.readVarInt();
+        if (size > reader.remaining()) throw new PacketCodecException("Invalid slot count: " + size);
+
+        byte[][] slots = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            slots[i] = reader.readBytes();
+        }
+
+        return slots;
+    }
+
+    /**
+     * Writes already serialized item bytes in the format of {@link #itemStackArrayToBase64},
+     * without turning them into item stacks first.
+     */
+    public static String slotsToBase64(byte[][] slots) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            DataOutputStream dataOutput = new DataOutputStream(outputStream);
+
+            dataOutput.writeInt(slots.length);
+            for (byte[] slot : slots) {
+                dataOutput.writeBoolean(slot != null);
+                if (slot != null) {
+                    dataOutput.writeInt(slot.length);
+                    dataOutput.write(slot);
+                }
+            }
+
+            dataOutput.close();
+            return Base64Coder.encodeLines(outputStream.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Never thrown by a byte array stream
+        }
+    }
+
     public static String itemStackArrayToBase64(ItemStack[] items, JavaPlugin plugin) {
         try {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
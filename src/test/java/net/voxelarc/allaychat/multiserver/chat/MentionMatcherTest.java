@@ -0,0 +1,75 @@
+package net.voxelarc.allaychat.multiserver.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MentionMatcherTest {
+
+    private final MentionMatcher matcher = new MentionMatcher();
+
+    @Test
+    void findsOverlappingNamesInOrderOfAppearance() {
+        matcher.setAll(List.of("Al", "Alex", "lex", "Bob"));
+
+        assertEquals(List.of("Bob", "Al", "Alex", "lex"), matcher.findAll("Bob met Alex"));
+        assertEquals(List.of(), matcher.findAll("nobody here"));
+    }
+
+    @Test
+    void reportsEveryNameOnce() {
+        matcher.add("Steve");
+        assertEquals(List.of("Steve"), matcher.findAll("Steve, Steve and Steve"));
+    }
+
+    @Test
+    void isCaseSensitive() {
+        matcher.add("Steve");
+        assertEquals(List.of(), matcher.findAll("steve"));
+    }
+
+    @Test
+    void addsAndRemovesBetweenSearches() {
+        matcher.add("Alex");
+        assertEquals(List.of("Alex"), matcher.findAll("Alexander"));
+
+        matcher.add("Alexander");
+        matcher.remove("Alex");
+        assertEquals(List.of("Alexander"), matcher.findAll("Alexander"));
+
+        matcher.add("Alex");
+        assertEquals(List.of("Alex", "Alexander"), matcher.findAll("Alexander"));
+
+        matcher.remove("Nobody");
+        matcher.add("");
+        assertEquals(List.of("Alex"), matcher.findAll("Alex"));
+    }
+
+    @Test
+    void rebuildAfterManyRemovalsKeepsTheRest() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("Player" + i + "x");
+        }
+        matcher.setAll(names);
+
+        // Enough removals to start the trie over, some of them while the links are outdated
+        for (int i = 0; i < 80; i++) {
+            matcher.remove("Player" + i + "x");
+            if (i % 10 == 0) matcher.findAll("Player" + i + "x");
+        }
+
+        assertEquals(List.of(), matcher.findAll("Player5x"));
+        assertEquals(List.of("Player85x", "Player99x"), matcher.findAll("Player85x and Player99x"));
+    }
+
+    @Test
+    void patternPrefersTheLongestName() {
+        assertEquals("[Alexander] and [Al]", MentionMatcher.toPattern(List.of("Al", "Alexander"))
+                .matcher("Alexander and Al").replaceAll("[$0]"));
+    }
+
+}
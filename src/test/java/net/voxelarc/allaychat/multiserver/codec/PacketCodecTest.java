@@ -0,0 +1,109 @@
+package net.voxelarc.allaychat.multiserver.codec;
+
+import com.google.gson.Gson;
+import net.voxelarc.allaychat.multiserver.packet.DeliveredMessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.DirectMessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.MessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.TemplateMessagePacket;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketCodecTest {
+
+    private static final Gson GSON = new Gson();
+
+    private final UUID origin = UUID.randomUUID();
+    private final PacketCodec binary = new PacketCodec(PacketFormat.BINARY, GSON, origin);
+    private final PacketCodec json = new PacketCodec(PacketFormat.JSON, GSON, origin);
+
+    @Test
+    void binaryRoundTrip() {
+        TemplateMessagePacket packet = new TemplateMessagePacket("Steve", 2, List.of("Alex", "hi <there>"));
+
+        long before = System.currentTimeMillis();
+        Frame frame = binary.decode(binary.encode("survival", packet), null);
+
+        assertEquals(packet, frame.packet());
+        assertEquals(origin, frame.origin());
+        assertTrue(frame.sentAt() >= before);
+    }
+
+    @Test
+    void privateMessageAnswerRoundTrip() {
+        DeliveredMessagePacket packet = new DeliveredMessagePacket("survival", "Steve", "Alex", "hi");
+        assertEquals(packet, binary.decode(binary.encode("survival", packet), null).packet());
+    }
+
+    @Test
+    void jsonRoundTripHasNoHeader() {
+        MessagePacket packet = new MessagePacket("survival", "Steve", "{\"text\":\"hi\"}");
+
+        byte[] data = json.encode("survival", packet);
+        assertFalse(PacketCodec.isBinary(data));
+
+        Frame frame = json.decode(data, MessagePacket.class);
+        assertEquals(packet, frame.packet());
+        assertNull(frame.origin());
+    }
+
+    @Test
+    void jsonOnBinaryOnlyChannelIsRejected() {
+        byte[] data = json.encode("survival", new MessagePacket("survival", "Steve", "{}"));
+        assertThrows(PacketCodecException.class, () -> binary.decode(data, null));
+    }
+
+    @Test
+    void peekTypeReadsHeaderOnly() {
+        byte[] data = binary.encode("survival", new DirectMessagePacket("survival", "Steve", "Alex", "hi"));
+
+        assertEquals(DirectMessagePacket.class, PacketCodec.peekType(data, MessagePacket.class));
+        assertEquals(MessagePacket.class, PacketCodec.peekType("{}".getBytes(StandardCharsets.UTF_8), MessagePacket.class));
+
+        data[2] = 63; // unused id
+        assertNull(PacketCodec.peekType(data, null));
+    }
+
+    @Test
+    void isOwnComparesOrigin() {
+        byte[] data = binary.encode("survival", new MessagePacket("survival", "Steve", "{}"));
+        PacketCodec other = new PacketCodec(PacketFormat.BINARY, GSON, UUID.randomUUID());
+
+        assertTrue(binary.isOwn(data));
+        assertFalse(other.isOwn(data));
+        assertFalse(binary.isOwn(json.encode("survival", new MessagePacket("survival", "Steve", "{}"))));
+        assertFalse(binary.isOwn(Arrays.copyOf(data, 8)));
+    }
+
+    @Test
+    void belongsToChecksGroup() {
+        byte[] data = binary.encode("survival", new MessagePacket("survival", "Steve", "{}"));
+        assertTrue(binary.belongsTo(data, "survival"));
+        assertFalse(binary.belongsTo(data, "creative"));
+        assertFalse(binary.belongsTo(data, "survival2"));
+
+        byte[] legacy = json.encode("survival", new MessagePacket("survival", "Steve", "{}"));
+        assertTrue(json.belongsTo(legacy, "survival"));
+        assertFalse(json.belongsTo(legacy, "creative"));
+        assertTrue(json.belongsTo("{\"playerName\":\"Steve\"}".getBytes(StandardCharsets.UTF_8), "creative"));
+    }
+
+    @Test
+    void newerVersionIsRejected() {
+        byte[] data = binary.encode("survival", new MessagePacket("survival", "Steve", "{}"));
+        data[1] = PacketCodec.VERSION + 1;
+        assertThrows(PacketCodecException.class, () -> binary.decode(data, null));
+    }
+
+    @Test
+    void truncatedFrameIsRejected() {
+        byte[] data = binary.encode("survival", new MessagePacket("survival", "Steve", "hello"));
+        assertThrows(PacketCodecException.class, () -> binary.decode(Arrays.copyOf(data, data.length - 2), null));
+    }
+
+}
@@ -0,0 +1,158 @@
+package net.voxelarc.allaychat.multiserver.dispatch;
+
+import com.google.gson.Gson;
+import net.voxelarc.allaychat.multiserver.codec.Frame;
+import net.voxelarc.allaychat.multiserver.codec.PacketCodec;
+import net.voxelarc.allaychat.multiserver.codec.PacketFormat;
+import net.voxelarc.allaychat.multiserver.metrics.NetworkMetrics;
+import net.voxelarc.allaychat.multiserver.packet.JoinPacket;
+import net.voxelarc.allaychat.multiserver.packet.MessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.PrivateMessagePacket;
+import net.voxelarc.allaychat.multiserver.packet.TitlePacket;
+import net.voxelarc.allaychat.multiserver.redis.ChannelNames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketDispatcherTest {
+
+    private static final String GROUP = "survival";
+    private static final String CHANNEL = "allaychat:survival:message:main";
+    private static final String INBOX = ChannelNames.inbox(GROUP, UUID.randomUUID().toString());
+
+    private final PacketCodec codec = new PacketCodec(PacketFormat.BINARY, new Gson(), UUID.randomUUID());
+    private final List<Object> handled = new CopyOnWriteArrayList<>();
+
+    // Handlers hold on packets from the gate player until the gate opens
+    private final CountDownLatch gateReached = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private final PacketDispatcher dispatcher = new PacketDispatcher(8, 60_000,
+            (channel, payload) -> PacketCodec.peekType(payload, null),
+            (channel, payload) -> codec.decode(payload, null),
+            this::handle,
+            new NetworkMetrics(),
+            Logger.getLogger("PacketDispatcherTest"));
+
+    @AfterEach
+    void close() {
+        gate.countDown();
+        dispatcher.close(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void handlesAChannelInArrivalOrder() throws InterruptedException {
+        blockChannel(CHANNEL, new MessagePacket(GROUP, "gate", "{}"));
+
+        List<String> names = new ArrayList<>(List.of("gate"));
+        for (int i = 0; i < 8; i++) {
+            names.add("Player" + i);
+            dispatch(CHANNEL, new MessagePacket(GROUP, "Player" + i, "{}"));
+        }
+
+        gate.countDown();
+        awaitHandled(1 + 8);
+
+        assertEquals(names, handled.stream().map(packet -> ((MessagePacket) packet).playerName()).toList());
+    }
+
+    @Test
+    void shedsCosmeticBeforeNormalAndNeverCritical() throws InterruptedException {
+        blockChannel(CHANNEL, new MessagePacket(GROUP, "gate", "{}"));
+
+        // Cosmetic packets stop at half the capacity, normal ones at the capacity, critical ones never
+        for (int i = 0; i < 6; i++) dispatch(CHANNEL, new TitlePacket("Player" + i, "{}", "{}"));
+        for (int i = 0; i < 6; i++) dispatch(CHANNEL, new MessagePacket(GROUP, "Player" + i, "{}"));
+        for (int i = 0; i < 3; i++) dispatch(CHANNEL, new JoinPacket("Player" + i, GROUP, "server", i));
+
+        gate.countDown();
+        awaitHandled(1 + 4 + 4 + 3);
+
+        assertEquals(4, count(TitlePacket.class));
+        assertEquals(1 + 4, count(MessagePacket.class));
+        assertEquals(3, count(JoinPacket.class));
+    }
+
+    @Test
+    void backlogKeepsOnlyTheLatestTitlePerPlayer() throws InterruptedException {
+        blockChannel(CHANNEL, new MessagePacket(GROUP, "gate", "{}"));
+
+        dispatch(CHANNEL, new TitlePacket("Steve", "first", "{}"));
+        dispatch(CHANNEL, new TitlePacket("Alex", "only", "{}"));
+        dispatch(CHANNEL, new TitlePacket("Steve", "second", "{}"));
+
+        gate.countDown();
+        awaitHandled(3);
+
+        assertEquals(List.of("only", "second"), handled.stream()
+                .filter(packet -> packet instanceof TitlePacket)
+                .map(packet -> ((TitlePacket) packet).serializedComponentTitle())
+                .toList());
+    }
+
+    @Test
+    void inboxTitlesDontHoldUpPrivateMessages() throws InterruptedException {
+        blockChannel(INBOX, new TitlePacket("gate", "{}", "{}"));
+        for (int i = 0; i < 20; i++) dispatch(INBOX, new TitlePacket("Player" + i, "{}", "{}"));
+
+        // Its own queue on the same inbox, handled while the titles are still stuck
+        dispatch(INBOX, new PrivateMessagePacket("Steve", "Alex", "hi", GROUP));
+        awaitHandled(2);
+
+        assertEquals(1, count(PrivateMessagePacket.class));
+        assertEquals(1, count(TitlePacket.class));
+    }
+
+    private void handle(String channel, Frame frame) {
+        handled.add(frame.packet());
+
+        boolean gated = switch (frame.packet()) {
+            case MessagePacket packet -> packet.playerName().equals("gate");
+            case TitlePacket packet -> packet.playerName().equals("gate");
+            default -> false;
+        };
+        if (!gated) return;
+
+        gateReached.countDown();
+        try {
+            gate.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Once the handler holds on this packet, everything else on its queue waits
+    private void blockChannel(String channel, Object packet) throws InterruptedException {
+        dispatch(channel, packet);
+        assertTrue(gateReached.await(5, TimeUnit.SECONDS));
+    }
+
+    private void dispatch(String channel, Object packet) {
+        dispatcher.dispatch(channel, codec.encode(GROUP, packet));
+    }
+
+    private void awaitHandled(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (handled.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Anything past the expected count would be a packet that should have been dropped
+        Thread.sleep(50);
+        assertEquals(count, handled.size());
+    }
+
+    private long count(Class<?> type) {
+        return handled.stream().filter(type::isInstance).count();
+    }
+
+}
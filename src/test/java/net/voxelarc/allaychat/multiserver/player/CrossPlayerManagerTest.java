@@ -0,0 +1,117 @@
+package net.voxelarc.allaychat.multiserver.player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrossPlayerManagerTest {
+
+    // Deltas and resync checks never publish, so no module is needed
+    private final CrossPlayerManager manager = new CrossPlayerManager(null);
+
+    @Test
+    void needsResyncUntilFirstSnapshot() {
+        assertTrue(manager.needsResync(0, 2000));
+
+        manager.applySnapshot(5, Map.of("Steve", "a"));
+        assertFalse(manager.needsResync(5, 2000));
+    }
+
+    @Test
+    void deltasBeforeSnapshotAreReplayedOnTop() {
+        manager.applyJoin("Alex", "b", 6);
+        manager.applyJoin("Old", "a", 4); // already part of the snapshot
+        assertTrue(manager.getAllPlayers().isEmpty());
+
+        manager.applySnapshot(5, Map.of("Steve", "a"));
+
+        assertEquals(Set.of("Steve", "Alex"), manager.getAllPlayers());
+        assertEquals("b", manager.getServer("Alex"));
+        assertNull(manager.getServer("Old"));
+    }
+
+    @Test
+    void outOfOrderDeltasWaitForTheGap() {
+        manager.applySnapshot(1, Map.of());
+
+        manager.applyJoin("Alex", "b", 3);
+        assertTrue(manager.getAllPlayers().isEmpty());
+
+        manager.applyJoin("Steve", "a", 2);
+        assertEquals(Set.of("Steve", "Alex"), manager.getAllPlayers());
+
+        manager.applyQuit("Steve", 3); // duplicate sequence, ignored
+        assertTrue(manager.getAllPlayers().contains("Steve"));
+    }
+
+    @Test
+    void missingDeltaTriggersResync() throws InterruptedException {
+        manager.applySnapshot(1, Map.of());
+        manager.applyJoin("Alex", "b", 3);
+
+        assertFalse(manager.needsResync(3, 2000));
+        Thread.sleep(5);
+        assertTrue(manager.needsResync(3, 1));
+    }
+
+    @Test
+    void counterBehindForTwoChecksTriggersResync() {
+        manager.applySnapshot(1, Map.of());
+
+        assertFalse(manager.needsResync(2, 2000)); // the delta may still be on its way
+        assertTrue(manager.needsResync(2, 2000));
+    }
+
+    @Test
+    void counterResetTriggersResync() {
+        manager.applySnapshot(10, Map.of());
+        assertTrue(manager.needsResync(3, 2000));
+    }
+
+    @Test
+    void unversionedDeltaAppliesAndTriggersResync() {
+        manager.applySnapshot(1, Map.of());
+        manager.applyJoin("Alex", "b", 0);
+
+        assertTrue(manager.getAllPlayers().contains("Alex"));
+        assertTrue(manager.needsResync(1, 2000));
+    }
+
+    @Test
+    void requestedResyncLastsUntilTheNextSnapshot() {
+        manager.applySnapshot(1, Map.of());
+        manager.requestResync();
+
+        assertTrue(manager.needsResync(1, 2000));
+        assertTrue(manager.needsResync(1, 2000));
+
+        manager.applySnapshot(1, Map.of());
+        assertFalse(manager.needsResync(1, 2000));
+    }
+
+    @Test
+    void clearRemovesOnlyThatServer() {
+        manager.applySnapshot(1, Map.of("Steve", "a", "Alex", "b", "Notch", "a"));
+        manager.applyClear("a", 2);
+
+        assertEquals(Set.of("Alex"), manager.getAllPlayers());
+        assertNull(manager.findPlayer("steve"));
+        assertEquals(List.of(), manager.getMentionMatcher().findAll("hi Steve"));
+    }
+
+    @Test
+    void snapshotReplacesEveryView() {
+        manager.applySnapshot(1, Map.of("Steve", "a"));
+        manager.applySnapshot(2, Map.of("Alex", "b"));
+
+        assertEquals(Set.of("Alex"), manager.getAllPlayers());
+        assertEquals("Alex", manager.findPlayer("ALEX"));
+        assertNull(manager.findPlayer("steve"));
+        assertEquals(List.of("Alex"), manager.getMentionMatcher().findAll("Steve and Alex"));
+    }
+
+}
@@ -0,0 +1,129 @@
+package net.voxelarc.allaychat.multiserver.player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+
+    private final NameIndex index = new NameIndex();
+
+    @Test
+    void lookupsIgnoreCase() {
+        index.put("Steve", "a");
+
+        assertEquals("Steve", index.find("sTEVE"));
+        assertEquals("a", index.route("STEVE"));
+        assertNull(index.find("Alex"));
+        assertNull(index.route("Alex"));
+    }
+
+    @Test
+    void everyViewFollowsJoinsAndQuits() {
+        index.put("Steve", "a");
+        index.put("Alex", "b");
+        index.remove("steve");
+
+        assertEquals(Set.of("Alex"), index.names());
+        assertFalse(index.names().contains("Steve"));
+        assertEquals(List.of(), index.complete("st", 10));
+        assertEquals(List.of("Alex"), index.mentionMatcher().findAll("Steve and Alex"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void respellingReplacesTheName() {
+        index.put("steve", "a");
+        index.put("Steve", "b");
+
+        assertEquals(Set.of("Steve"), index.names());
+        assertEquals("b", index.route("steve"));
+        assertEquals(List.of("Steve"), index.mentionMatcher().findAll("steve or Steve"));
+    }
+
+    @Test
+    void completeIsSortedAndLimited() {
+        for (String name : List.of("Notch", "alex", "Alexander", "Al", "Bob")) {
+            index.put(name, "a");
+        }
+
+        assertEquals(List.of("Al", "alex", "Alexander"), index.complete("AL", 10));
+        assertEquals(List.of("Al", "alex"), index.complete("al", 2));
+        assertEquals(List.of(), index.complete("z", 10));
+    }
+
+    @Test
+    void removeRouteKeepsThePlayerAndNewerRoutes() {
+        index.put("Steve", "a");
+        index.removeRoute("Steve", "b"); // moved on already
+        assertEquals("a", index.route("Steve"));
+
+        index.removeRoute("Steve", "a");
+        assertNull(index.route("Steve"));
+        assertEquals("Steve", index.find("Steve"));
+    }
+
+    @Test
+    void removeOnlyTakesPlayersStillOnThatServer() {
+        index.put("Steve", "a");
+        index.put("Alex", "a");
+        index.put("Notch", "b");
+
+        index.remove("Notch", "a");
+        assertEquals("Notch", index.find("Notch"));
+
+        index.removeServer("a");
+        assertEquals(Set.of("Notch"), index.names());
+    }
+
+    @Test
+    void replaceAllSwapsEverything() {
+        index.put("Steve", "a");
+        index.replaceAll(Map.of("Alex", "b", "Notch", "c"));
+
+        assertEquals(Set.of("Alex", "Notch"), index.names());
+        assertNull(index.find("steve"));
+        assertEquals("c", index.route("notch"));
+        assertEquals(List.of("Alex"), index.complete("a", 10));
+        assertEquals(List.of("Alex"), index.mentionMatcher().findAll("Steve and Alex"));
+    }
+
+    @Test
+    void concurrentWritersKeepTheViewsInStep() throws InterruptedException {
+        List<Thread> writers = new ArrayList<>();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        String name = "Player" + (i % 50);
+                        if ((i + writer) % 3 == 0) {
+                            index.remove(name);
+                        } else {
+                            index.put(name, "server" + writer);
+                        }
+                    }
+                } catch (Throwable throwable) {
+                    failures.add(throwable);
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        Set<String> names = Set.copyOf(index.names());
+        assertEquals(names.size(), index.size());
+        assertEquals(names.size(), index.complete("player", 100).size());
+        assertEquals(names, Set.copyOf(index.mentionMatcher().findAll(String.join(" ", names))));
+    }
+
+}
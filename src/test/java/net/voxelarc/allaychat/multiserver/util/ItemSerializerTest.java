@@ -0,0 +1,66 @@
+package net.voxelarc.allaychat.multiserver.util;
+
+import net.voxelarc.allaychat.multiserver.codec.PacketCodecException;
+import org.junit.jupiter.api.Test;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemSerializerTest {
+
+    private static final byte[][] SLOTS = {
+            "{id:\"minecraft:stone\",count:64}".getBytes(StandardCharsets.UTF_8),
+            null,
+            new byte[0],
+            "{id:\"minecraft:diamond_sword\",count:1}".repeat(20).getBytes(StandardCharsets.UTF_8)
+    };
+
+    @Test
+    void slotsRoundTrip() {
+        for (boolean compress : new boolean[]{false, true}) {
+            byte[][] decoded = ItemSerializer.decodeSlots(ItemSerializer.encodeSlots(SLOTS, compress), 1 << 20);
+
+            assertEquals(SLOTS.length, decoded.length);
+            for (int i = 0; i < SLOTS.length; i++) {
+                assertArrayEquals(SLOTS[i], decoded[i]);
+            }
+        }
+    }
+
+    @Test
+    void inflatedLengthIsCapped() {
+        byte[] deflated = ItemSerializer.encodeSlots(SLOTS, true);
+        assertThrows(PacketCodecException.class, () -> ItemSerializer.decodeSlots(deflated, 64));
+    }
+
+    @Test
+    void truncatedDeflatedDataIsRejected() {
+        byte[] deflated = ItemSerializer.encodeSlots(SLOTS, true);
+        byte[] truncated = Arrays.copyOf(deflated, deflated.length / 2);
+        assertThrows(PacketCodecException.class, () -> ItemSerializer.decodeSlots(truncated, 1 << 20));
+    }
+
+    @Test
+    void slotsToBase64UsesLegacyLayout() throws IOException {
+        String base64 = ItemSerializer.slotsToBase64(SLOTS);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64Coder.decodeLines(base64)));
+        assertEquals(SLOTS.length, input.readInt());
+        for (byte[] slot : SLOTS) {
+            assertEquals(slot != null, input.readBoolean());
+            if (slot == null) continue;
+
+            byte[] read = new byte[input.readInt()];
+            input.readFully(read);
+            assertArrayEquals(slot, read);
+        }
+        assertEquals(-1, input.read());
+    }
+
+}